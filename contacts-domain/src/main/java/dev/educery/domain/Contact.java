@@ -4,10 +4,14 @@ import java.util.*;
 import java.io.Serializable;
 
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import javax.xml.bind.annotation.*;
 import javax.validation.constraints.Size;
 
 import dev.educery.storage.Hashed;
+import dev.educery.storage.ChangeLog;
+import dev.educery.storage.HashedItem;
 import dev.educery.codecs.ModelCodec;
 import dev.educery.storage.Descriptive;
 import dev.educery.storage.StorageMechanism;
@@ -24,8 +28,11 @@ import static dev.educery.utils.Utils.*;
  * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "contacts")
 @Table(name = "contact", indexes = {
-    @Index(name = "ix_name_hash", columnList = "hash_key")})
+    @Index(name = "ix_name_hash", columnList = "hash_key"),
+    @Index(name = "ix_name_search", columnList = "search_name, id")})
 @XmlRootElement(name = "Contact", namespace = "##default")
 @SuppressWarnings("unchecked")
 public class Contact extends Hashed<Contact> implements SurrogatedComposite, Serializable {
@@ -41,6 +48,11 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
         List<Contact> findEmail(Long emailKey);
         List<Contact> findPhone(Long phoneKey);
 
+        List<Contact> findKeys(Collection<Long> keys);
+        List<Contact> findHashes(Collection<Long> hashKeys);
+        List<Contact> findEmails(Collection<Long> emailKeys);
+        List<Contact> findPhones(Collection<Long> phoneKeys);
+
     } // IContactSearch
 
     static final long serialVersionUID = 1001001L;
@@ -60,9 +72,9 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
     /**
      * @return a count of saved contacts
      */
-    public static int count() { return (int) SampleContact.getStore().count(); }
+    public static int count() { return (int) SampleContact.countItems(); }
     public static Contact named(String name) { return new Contact().withName(name); }
-    public static Contact findKey(long key) { return storage().findKey(key); }
+    public static Contact findKey(long key) { return storage().findById(key).orElse(null); } // cached
 
     public ItemBrief brief() { return new ItemBrief(getKey(), "name="+getName()); }
     public String toJSON() { return ModelCodec.from(this).toJSON(); }
@@ -82,20 +94,83 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
         Contact c = Contact.find(name); if (hasNone(c)) return new ArrayList();
         Contact[] cs = { c }; return wrap(cs); }
 
+    /**
+     * Finds contacts with a single query.
+     * @param keys some contact keys
+     * @return the contacts found, mapped from their keys, in the order requested
+     */
+    public static Map<Long, Contact> findKeys(Collection<Long> keys) {
+        LinkedHashMap<Long, Contact> results = new LinkedHashMap<>();
+        if (hasNone(keys) || keys.isEmpty()) return results;
+
+        HashMap<Long, Contact> found = new HashMap<>();
+        storage().findKeys(new HashSet<>(keys)).forEach(c -> found.put(c.getKey(), c));
+        keys.forEach(key -> { if (found.containsKey(key)) results.put(key, found.get(key)); });
+        return results;
+    }
+
+    /**
+     * Finds contacts with a single query, based on the hashes of the supplied IDs.
+     * @param idType indicates a kind of ID: a name, phone, or email
+     * @param itemIDs identify some contacts
+     * @return the first contact found for each ID, mapped from the ID, in the order requested
+     */
+    public static Map<String, Contact> findWithHashes(Type idType, Collection<String> itemIDs) {
+        LinkedHashMap<String, Contact> results = new LinkedHashMap<>();
+        if (hasNone(idType) || hasNone(itemIDs) || itemIDs.isEmpty()) return results;
+
+        LinkedHashMap<String, Long> hashes = new LinkedHashMap<>();
+        itemIDs.forEach(itemID -> hashes.put(itemID, hashOf(idType, itemID)));
+        HashSet<Long> hashKeys = new HashSet<>(hashes.values()); hashKeys.remove(0L);
+        if (hashKeys.isEmpty()) return results;
+
+        List<Contact> found = idType == Type.name ? storage().findHashes(hashKeys) :
+            idType == Type.email ? storage().findEmails(hashKeys) : storage().findPhones(hashKeys);
+        hashes.forEach((itemID, hash) -> found.stream()
+            .filter(c -> c.hasHash(idType, hash)).findFirst()
+            .ifPresent(c -> results.put(itemID, c)));
+        return results;
+    }
+
+    private static long hashOf(Type idType, String itemID) {
+        switch (idType) {
+            case name:  return Contact.named(itemID).hashKey();
+            case email: return EmailAddress.from(itemID).hashKey();
+            case phone: return PhoneNumber.from(itemID).hashKey();
+        }
+        return 0;
+    }
+
+    private boolean hasHash(Type idType, long hash) {
+        switch (idType) {
+            case name:  return hashKey() == hash;
+            case email: return emails.values().stream().anyMatch(e -> e.hashKey() == hash);
+            case phone: return phones.values().stream().anyMatch(p -> p.hashKey() == hash);
+        }
+        return false;
+    }
+
     /**
      * a contact name
      */
     @XmlAttribute(name = "name")
     public String getName() { return this.name; }
-    public void setName(String value) { this.name = normalizeWords(value); }
+    public void setName(String value) { this.name = normalizeWords(value); this.searchName = searchable(this.name); }
     public Contact withName(String value) { setName(value); markDirty(); return this; }
 
     @Column(name = "name", nullable = false, length = 100)
     @Size(min = 2, max = 100, message = "contact name too short or long")
     protected String name = "  ";
 
+    /**
+     * A lower case copy of the name, indexed for case-insensitive prefix and infix searches.
+     */
+    @Column(name = "search_name", nullable = false, length = 100)
+    protected String searchName = "  ";
+    public static String searchable(String name) { return name.toLowerCase(Locale.ROOT); }
+
     static final String Wild = "%";
-    protected String getLikeness() { return getName().isEmpty() ? Wild : Wild + getName() + Wild; }
+    protected String getLikeness() { return searchName.trim().isEmpty() ? Wild : Wild + searchName + Wild; }
 
     @Override protected long hash() { return hash(getName()); }
     @Override public int hashCode() { String hashSource = getName(); return hashSource.hashCode(); }
@@ -140,6 +215,38 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
         Object[] results = { this.addresses, this.emails, this.phones }; return results;
     }
 
+    /**
+     * @return the change logs of the component maps, in the same order
+     */
+    @Override public Object[] componentChanges() {
+        Object[] results = { this.addressChanges, this.emailChanges, this.phoneChanges }; return results;
+    }
+
+    /**
+     * Adopts the unchanged parts of the stored version of this (e.g., decoded) contact,
+     * so that saving this contact saves only its changed parts, rather than searching for every part again.
+     * @param stored the stored version of this contact, loaded in the same transaction
+     * @return this Contact
+     */
+    public Contact adoptUnchanged(Contact stored) {
+        if (hasNone(stored) || stored.getKey() != getKey()) return this;
+        adoptUnchanged(addresses, stored.addresses, addressChanges);
+        adoptUnchanged(phones, stored.phones, phoneChanges);
+        adoptUnchanged(emails, stored.emails, emailChanges);
+        return this;
+    }
+
+    private static <PartType extends HashedItem> void adoptUnchanged(
+            Map<Kind, PartType> parts, Map<Kind, PartType> stored, ChangeLog<Kind> changes) {
+        parts.replaceAll((kind, part) -> {
+            PartType current = stored.get(kind);
+            if (hasNone(current) || current.hashKey() != part.hashKey()) return part;
+            changes.unchanged(kind);
+            return current; // saved and clean, so the save skips it
+        });
+        stored.keySet().forEach((kind) -> { if (!parts.containsKey(kind)) changes.removed(kind); });
+    }
+
     // component map indices for this composite
     static final int AddressIndex = 0;
     static final int EmailIndex = 1;
@@ -154,10 +261,13 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
         orphanRemoval = true)
     @MapKeyEnumerated(EnumType.STRING)
     @MapKeyColumn(name = "kind", length = 10, nullable = false)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "contacts.addresses")
     private final Map<Kind, MailAddress> addresses = new HashMap<>();
+    private final transient ChangeLog<Kind> addressChanges = new ChangeLog<>();
     private void adoptMail(ContactMechanism m) { adoptAddress(Kind.valueOf(m.getType()), (MailAddress) m.getMechanism()); }
     private void adoptAddress(Kind kind, MailAddress address) {
-        if (hasOne(address)) addresses.put(kind, address); else addresses.remove(kind);
+        if (hasOne(address)) { addresses.put(kind, address); addressChanges.added(kind); }
+        else if (hasOne(addresses.remove(kind))) addressChanges.removed(kind);
     }
 
     public int countAddresses() { return this.addresses.size(); }
@@ -176,10 +286,13 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
         orphanRemoval = true)
     @MapKeyEnumerated(EnumType.STRING)
     @MapKeyColumn(name = "kind", length = 10, nullable = false)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "contacts.phones")
     private final Map<Kind, PhoneNumber> phones = new HashMap<>();
+    private final transient ChangeLog<Kind> phoneChanges = new ChangeLog<>();
     private void adoptPhone(ContactMechanism m) { adoptPhone(Kind.valueOf(m.getType()), (PhoneNumber) m.getMechanism()); }
     private void adoptPhone(Kind kind, PhoneNumber phone) {
-        if (hasOne(phone)) phones.put(kind, phone); else phones.remove(kind);
+        if (hasOne(phone)) { phones.put(kind, phone); phoneChanges.added(kind); }
+        else if (hasOne(phones.remove(kind))) phoneChanges.removed(kind);
     }
 
     public int countPhones() { return this.phones.size(); }
@@ -198,10 +311,13 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
         orphanRemoval = true)
     @MapKeyEnumerated(EnumType.STRING)
     @MapKeyColumn(name = "kind", length = 10, nullable = false)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "contacts.emails")
     private final Map<Kind, EmailAddress> emails = new HashMap<>();
+    private final transient ChangeLog<Kind> emailChanges = new ChangeLog<>();
     private void adoptEmail(ContactMechanism m) { adoptEmail(Kind.valueOf(m.getType()), (EmailAddress) m.getMechanism()); }
     private void adoptEmail(Kind kind, EmailAddress email) {
-        if (hasOne(email)) emails.put(kind, email); else emails.remove(kind);
+        if (hasOne(email)) { emails.put(kind, email); emailChanges.added(kind); }
+        else if (hasOne(emails.remove(kind))) emailChanges.removed(kind);
     }
 
     public int countEmails() { return this.emails.size(); }
@@ -211,6 +327,19 @@ public class Contact extends Hashed<Contact> implements SurrogatedComposite, Ser
     public Contact with(Kind kind, EmailAddress email) { return withEmail(kind, email); }
     public Contact withEmail(Kind kind, EmailAddress email) { adoptEmail(kind, email); return this; }
 
+    static final String Joint = ":";
+    /**
+     * @return a hash of the content of this contact: its key, its name, and its parts by kind,
+     * which changes whenever any of them changes
+     */
+    public long contentHash() {
+        StringBuilder content = new StringBuilder().append(getKey()).append(Joint).append(hashKey());
+        new TreeMap<>(phones).forEach((kind, p) -> content.append(Joint).append(kind).append(p.hashKey()));
+        new TreeMap<>(emails).forEach((kind, e) -> content.append(Joint).append(kind).append(e.hashKey()));
+        new TreeMap<>(addresses).forEach((kind, a) -> content.append(Joint).append(kind).append(a.hashKey()));
+        return hash(content.toString());
+    }
+
     @Override public String formatValue() { return getName(); }
     @Override public void describe() {
         report(hashDescription());
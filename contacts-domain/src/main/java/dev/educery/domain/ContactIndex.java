@@ -0,0 +1,161 @@
+package dev.educery.domain;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import dev.educery.storage.TextIndex;
+import dev.educery.storage.QueryBuilder;
+import dev.educery.storage.StorageMechanism;
+import dev.educery.storage.TextIndex.Hit;
+import static dev.educery.utils.Exceptional.*;
+import static dev.educery.utils.Logging.Empty;
+import static dev.educery.utils.Logging.isEmpty;
+import static dev.educery.utils.Utils.*;
+
+/**
+ * A full text index of contacts, their names, phones, emails, and mailing addresses.
+ *
+ * <h4>ContactIndex Responsibilities:</h4>
+ * <ul>
+ * <li>knows the weighted search terms of each indexed contact</li>
+ * <li>includes (or excludes) individual contacts as they change</li>
+ * <li>rebuilds itself from the stored contacts</li>
+ * <li>selects a ranked page of contacts that match some search text</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class ContactIndex {
+
+    private final TextIndex index = new TextIndex();
+    public int size() { return this.index.size(); }
+
+    // term weights by field
+    static final float NameWeight = 4.0f;
+    static final float ValueWeight = 3.0f;
+    static final float PlaceWeight = 2.0f;
+    static final float PartWeight = 1.0f;
+
+    /**
+     * Includes (or replaces) a saved contact in this index.
+     * @param c a saved contact
+     */
+    public void include(Contact c) { include(c.getKey(), termsOf(c)); }
+    public void include(long key, Map<String, Float> terms) { if (key > 0) index.put(key, terms); }
+
+    /**
+     * Excludes a contact from this index.
+     * @param key a contact key
+     */
+    public void exclude(long key) { index.remove(key); }
+
+    static final int RebuildChunkSize = 1000;
+    static final String AllContacts = "SELECT c FROM Contact c";
+    /**
+     * Rebuilds this index from the stored contacts, scanned chunk by chunk, indexing each chunk in parallel.
+     * Needs a transaction for its scan.
+     * @return a count of the indexed contacts
+     */
+    public int rebuild() {
+        index.clear();
+        QueryBuilder.withQueryText(AllContacts).forEachChunk(StorageMechanism.getManager(), RebuildChunkSize,
+            (List<Contact> chunk) -> chunk.parallelStream().forEach(c -> include(c)));
+        return size();
+    }
+
+    /**
+     * Selects a page of the contacts that best match some search text.
+     * @param text some search text
+     * @param limit a page size, or zero for the default page size
+     * @param cursor the next cursor from a previous page, or empty for the first page
+     * @return a ranked page of contacts
+     * @exception IllegalArgumentException if the supplied cursor was malformed
+     */
+    public ItemPage.Contacts page(String text, int limit, String cursor) {
+        int size = ContactQuery.named(Empty).withLimit(limit).limit();
+        int offset = decodeOffset(cursor);
+        List<Hit> hits = index.search(terms(text));
+
+        ItemPage.Contacts result = new ItemPage.Contacts();
+        if (offset >= hits.size()) return result;
+
+        int end = Math.min(hits.size(), offset + size);
+        List<Long> keys = map(hits.subList(offset, end), hit -> hit.getKey());
+        Map<Long, Contact> found = new HashMap<>();
+        Contact.storage().findAllById(keys).forEach(c -> found.put(c.getKey(), c));
+
+        result.setItems(mapList(keys, key -> found.containsKey(key), key -> found.get(key)));
+        if (end < hits.size()) result.setNext(String.valueOf(end));
+        return result;
+    }
+
+    static final String Malformed = "malformed search cursor: ";
+    private static int decodeOffset(String cursor) {
+        if (isEmpty(cursor)) return 0;
+        int result = defaultOrTryQuietly(() -> Integer.parseInt(cursor), -1);
+        if (result < 0) throw new IllegalArgumentException(Malformed + cursor);
+        return result;
+    }
+
+    /**
+     * @param cursor the next cursor from a previous page
+     * @return whether a cursor is either empty or well formed
+     */
+    public static boolean isValidCursor(String cursor) {
+        return isEmpty(cursor) || defaultOrTryQuietly(() -> Integer.parseInt(cursor), -1) >= 0; }
+
+    static final String Separators = "[^\\p{Alnum}]+";
+    /**
+     * @param text some text
+     * @return the (lower case) words in some text
+     */
+    public static List<String> terms(String text) {
+        if (isEmpty(text)) return emptyList();
+        return Arrays.stream(Contact.searchable(text).split(Separators))
+            .filter(term -> !term.isEmpty()).collect(Collectors.toList()); }
+
+    /**
+     * @param c a contact
+     * @return the weighted search terms of a contact
+     */
+    public static Map<String, Float> termsOf(Contact c) {
+        HashMap<String, Float> results = new HashMap<>();
+        addTerms(results, c.getName(), NameWeight);
+        for (ContactMechanism m : c.getMechanisms()) {
+            Object item = m.getMechanism();
+            if (item instanceof PhoneNumber) addPhone(results, (PhoneNumber) item);
+            if (item instanceof EmailAddress) addEmail(results, (EmailAddress) item);
+            if (item instanceof MailAddress) addAddress(results, (MailAddress) item);
+        }
+        return results;
+    }
+
+    private static void addPhone(Map<String, Float> results, PhoneNumber p) {
+        addTerm(results, String.join(Empty, terms(p.formatNumber())), ValueWeight);
+        addTerms(results, p.formatNumber(), PartWeight);
+    }
+
+    static final String At = "@";
+    private static void addEmail(Map<String, Float> results, EmailAddress e) {
+        String[] parts = e.formatAddress().split(At);
+        if (parts.length > 0) addTerms(results, parts[0], ValueWeight);
+        if (parts.length > 1) addTerms(results, parts[1], PartWeight);
+    }
+
+    private static void addAddress(Map<String, Float> results, MailAddress a) {
+        addTerms(results, a.getStreet(), PartWeight);
+        addTerms(results, a.getOffice(), PartWeight);
+        addTerms(results, a.getStateCode(), PartWeight);
+        addTerms(results, a.getCity(), PlaceWeight);
+        addTerms(results, a.getPostalCode(), PlaceWeight);
+    }
+
+    private static void addTerms(Map<String, Float> results, String text, float weight) {
+        terms(text).forEach(term -> addTerm(results, term, weight)); }
+
+    private static void addTerm(Map<String, Float> results, String term, float weight) {
+        if (!term.isEmpty()) results.merge(term, weight, Math::max); }
+
+} // ContactIndex
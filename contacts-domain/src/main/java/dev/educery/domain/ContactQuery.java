@@ -0,0 +1,123 @@
+package dev.educery.domain;
+
+import java.util.*;
+import dev.educery.storage.QueryBuilder;
+import dev.educery.storage.StorageMechanism;
+
+import dev.educery.domain.ItemPage.Cursor;
+import static dev.educery.storage.Surrogated.*;
+import static dev.educery.utils.Logging.isEmpty;
+import static dev.educery.utils.Utils.*;
+
+/**
+ * Selects a bounded page of contacts ordered by name (then key), optionally filtered by city and zip.
+ * Names match case-insensitively, anywhere within a contact name, or only at its start when the
+ * name pattern ends with '*'. Prefix matches are answered by a range scan of the search name index.
+ * Each page gets selected by a QueryBuilder, so each distinct query text gets parsed only once.
+ *
+ * <h4>ContactQuery Responsibilities:</h4>
+ * <ul>
+ * <li>knows a name pattern, and optional city and zip filters</li>
+ * <li>knows a page size limit, a sort direction, and a starting cursor</li>
+ * <li>selects the next page of contacts using a keyset on (name, key)</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class ContactQuery {
+
+    public static final int DefaultLimit = 100;
+    public static final int MaximumLimit = 1000;
+    public static final String Ascending = "name";
+    public static final String Descending = "-name";
+    public static final String Prefixed = "*";
+
+    private String name = Empty;
+    private boolean prefixed = false;
+    private String city = Empty;
+    private String zip = Empty;
+    private int limit = DefaultLimit;
+    private boolean descending = false;
+    private Cursor cursor = null;
+
+    public static ContactQuery named(String name) { return new ContactQuery().withName(name); }
+    public ContactQuery withName(String value) {
+        this.prefixed = hasOne(value) && value.trim().endsWith(Prefixed);
+        this.name = Contact.searchable(normalizeWords(value)); return this; }
+    public ContactQuery withCity(String value) { this.city = normalizeWords(value); return this; }
+    public ContactQuery withZip(String value) { this.zip = normalizeCode(value); return this; }
+    public ContactQuery withCursor(String value) { this.cursor = Cursor.decode(value); return this; }
+
+    /**
+     * @param value a page size, or zero for the default page size
+     * @return this ContactQuery
+     */
+    public ContactQuery withLimit(int value) {
+        this.limit = (value < 1) ? DefaultLimit : Math.min(value, MaximumLimit); return this; }
+
+    /**
+     * @param value "name" for ascending order (the default), or "-name" for descending order
+     * @return this ContactQuery
+     */
+    public ContactQuery withSort(String value) { this.descending = Descending.equals(value); return this; }
+
+    public int limit() { return this.limit; }
+    public boolean isDescending() { return this.descending; }
+    public boolean isPrefixed() { return this.prefixed; }
+
+    static final String Wild = "%";
+    protected String likeness() {
+        if (isEmpty(name)) return Wild;
+        return isPrefixed() ? name + Wild : Wild + name + Wild; }
+
+    static final String Top = String.valueOf(Character.MAX_VALUE);
+    protected String lowBound() { return isPrefixed() ? name : Empty; }
+    protected String highBound() {
+        if (!isPrefixed() || isEmpty(name)) return Top;
+        int last = name.length() - 1; // the least string greater than any with this prefix
+        if (name.charAt(last) == Character.MAX_VALUE) return Top; // no greater char
+        return name.substring(0, last) + (char) (name.charAt(last) + 1); }
+
+    /**
+     * @return the selected page of contacts
+     */
+    public ItemPage.Contacts page() {
+        List<Contact> results = select(limit() + 1); // one extra to detect a next page
+        ItemPage.Contacts page = new ItemPage.Contacts();
+        if (results.size() > limit()) {
+            results = copyList(results.subList(0, limit()));
+            page.setNext(Cursor.after(results.get(limit() - 1)).encode());
+        }
+        page.setItems(results);
+        return page;
+    }
+
+    static final String PageSelection = "SELECT c FROM Contact c WHERE c.searchName like :sample"
+        + " AND c.searchName >= :low AND c.searchName < :high"
+        + " AND (:city = '' OR EXISTS (SELECT a FROM Contact x JOIN x.addresses a WHERE x = c AND a.city = :city))"
+        + " AND (:zip = '' OR EXISTS (SELECT a FROM Contact x JOIN x.addresses a WHERE x = c AND a.postalCode = :zip))";
+
+    static final String AfterCursor = " AND (c.searchName > :name OR (c.searchName = :name AND c.key > :key))";
+    static final String BeforeCursor = " AND (c.searchName < :name OR (c.searchName = :name AND c.key < :key))";
+    static final String AscendingOrder = " ORDER BY c.searchName, c.key";
+    static final String DescendingOrder = " ORDER BY c.searchName DESC, c.key DESC";
+    protected String queryText() {
+        String keyset = hasNone(cursor) ? Empty : isDescending() ? BeforeCursor : AfterCursor;
+        return PageSelection + keyset + (isDescending() ? DescendingOrder : AscendingOrder); }
+
+    private List<Contact> select(int count) {
+        QueryBuilder builder = QueryBuilder.withQueryText(queryText())
+            .withValue("sample", likeness()).withValue("low", lowBound()).withValue("high", highBound())
+            .withValue("city", city).withValue("zip", zip)
+            .withMaxResults(count).withFetchSize(count);
+
+        if (hasOne(cursor)) {
+            builder.withValue("name", Contact.searchable(cursor.getName())).withValue("key", cursor.getKey());
+        }
+
+        return builder.buildQuery(StorageMechanism.getManager(), Contact.class).getResultList();
+    }
+
+} // ContactQuery
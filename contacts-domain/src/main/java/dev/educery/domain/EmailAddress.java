@@ -3,6 +3,8 @@ package dev.educery.domain;
 import java.io.Serializable;
 import javax.mail.internet.AddressException;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import javax.xml.bind.annotation.*;
 import javax.mail.internet.InternetAddress;
 
@@ -17,6 +19,8 @@ import dev.educery.codecs.ModelCodec;
  * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "emails")
 @Table(name = "email_address", indexes = {
     @Index(name = "ix_email_hash", columnList = "hash_key")})
 @XmlRootElement(name = "EmailAddress", namespace = "##default")
@@ -30,7 +34,7 @@ public class EmailAddress extends Hashed<EmailAddress> implements Serializable {
     /**
      * @return a count of saved email addresses
      */
-    public static int count() { return (int) SampleAddress.getStore().count(); }
+    public static int count() { return (int) SampleAddress.countItems(); }
     public static EmailAddress fromJSON(String json) { return ModelCodec.to(EmailAddress.class).fromJSON(json); }
     public String toJSON() { return ModelCodec.from(this).toJSON(); }
 
@@ -0,0 +1,63 @@
+package dev.educery.domain;
+
+import java.util.*;
+import java.io.Serializable;
+import javax.xml.bind.annotation.*;
+
+import dev.educery.codecs.ModelCodec;
+
+/**
+ * The results of a batch request, mapped from each of the requested item IDs, in the order requested.
+ * @param <ResultType> a kind of result
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@XmlRootElement
+public class ItemBatch<ResultType> implements Serializable {
+
+    static final long serialVersionUID = 1001001L;
+
+    /**
+     * the results, mapped from the requested IDs
+     */
+    public Map<String, ResultType> getResults() { return this.results; }
+    public void setResults(Map<String, ResultType> results) { this.results = results; }
+    private Map<String, ResultType> results = new LinkedHashMap<>();
+
+    public int count() { return getResults().size(); }
+    public boolean has(Object itemID) { return getResults().containsKey(itemID.toString()); }
+    public ResultType get(Object itemID) { return getResults().get(itemID.toString()); }
+    public void put(Object itemID, ResultType result) { getResults().put(itemID.toString(), result); }
+    public void putAll(ItemBatch<ResultType> batch) { getResults().putAll(batch.getResults()); }
+
+    /**
+     * A batch of contacts, which omits any missing contacts.
+     */
+    @XmlRootElement
+    public static class Contacts extends ItemBatch<Contact> {
+        static final long serialVersionUID = 1001001L;
+        public Contacts() { }
+        public String toJSON() { return ModelCodec.from(this).toJSON(); }
+        public static Contacts fromJSON(String json) { return ModelCodec.to(Contacts.class).fromJSON(json); }
+
+        public static Contacts from(Map<?, Contact> contacts) {
+            Contacts result = new Contacts();
+            contacts.forEach((itemID, c) -> result.put(itemID, c));
+            return result;
+        }
+    } // Contacts
+
+    /**
+     * A batch of response status codes.
+     */
+    @XmlRootElement
+    public static class Statuses extends ItemBatch<Integer> {
+        static final long serialVersionUID = 1001001L;
+        public Statuses() { }
+        public String toJSON() { return ModelCodec.from(this).toJSON(); }
+        public static Statuses fromJSON(String json) { return ModelCodec.to(Statuses.class).fromJSON(json); }
+    } // Statuses
+
+} // ItemBatch<ResultType>
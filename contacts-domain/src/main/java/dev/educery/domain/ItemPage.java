@@ -0,0 +1,129 @@
+package dev.educery.domain;
+
+import java.util.*;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import javax.xml.bind.annotation.*;
+
+import dev.educery.codecs.ModelCodec;
+import dev.educery.crypto.LongHash;
+import static dev.educery.utils.Exceptional.*;
+import static dev.educery.utils.Logging.isEmpty;
+import static dev.educery.utils.Utils.*;
+
+/**
+ * A page of selected items, with a cursor for fetching the next page.
+ * @param <ItemType> a kind of item
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@XmlRootElement
+public class ItemPage<ItemType> implements Serializable {
+
+    static final long serialVersionUID = 1001001L;
+
+    /**
+     * the selected items
+     */
+    public List<ItemType> getItems() { return this.items; }
+    public void setItems(List<ItemType> items) { this.items = items; }
+    private List<ItemType> items = new ArrayList<>();
+
+    /**
+     * a cursor for the next page, empty if this is the last page
+     */
+    public String getNext() { return this.next; }
+    public void setNext(String next) { this.next = next; }
+    private String next = "";
+
+    public int count() { return getItems().size(); }
+    public boolean hasNext() { return !isEmpty(getNext()); }
+
+    /**
+     * A page of contacts.
+     */
+    @XmlRootElement
+    public static class Contacts extends ItemPage<Contact> {
+        static final long serialVersionUID = 1001001L;
+        public Contacts() { }
+        public String toJSON() { return ModelCodec.from(this).toJSON(); }
+        public static Contacts fromJSON(String json) { return ModelCodec.to(Contacts.class).fromJSON(json); }
+
+        /**
+         * @return a hash of the contents of this page, which changes whenever any of its contacts changes
+         */
+        public long contentHash() {
+            StringBuilder content = new StringBuilder(getNext());
+            getItems().forEach(c -> content.append(Cursor.Joint).append(c.contentHash()));
+            return LongHash.hash(content.toString());
+        }
+
+        public Briefs briefs() {
+            Briefs result = new Briefs();
+            result.setItems(map(getItems(), c -> c.brief()));
+            result.setNext(getNext());
+            return result;
+        }
+    } // Contacts
+
+    /**
+     * A page of contact briefs.
+     */
+    @XmlRootElement
+    public static class Briefs extends ItemPage<ItemBrief> {
+        static final long serialVersionUID = 1001001L;
+        public Briefs() { }
+        public String toJSON() { return ModelCodec.from(this).toJSON(); }
+        public static Briefs fromJSON(String json) { return ModelCodec.to(Briefs.class).fromJSON(json); }
+    } // Briefs
+
+    /**
+     * A keyset position within an ordered selection: the name and key of the last item on a page.
+     */
+    public static class Cursor {
+
+        private final String name;
+        public String getName() { return this.name; }
+
+        private final long key;
+        public long getKey() { return this.key; }
+
+        public Cursor(String name, long key) { this.name = name; this.key = key; }
+        public static Cursor after(Contact c) { return new Cursor(c.getName(), c.getKey()); }
+
+        static final String Joint = ":";
+        static final Base64.Encoder Encoder = Base64.getUrlEncoder().withoutPadding();
+        public String encode() {
+            String text = getKey() + Joint + getName();
+            return Encoder.encodeToString(text.getBytes(StandardCharsets.UTF_8)); }
+
+        static final String Malformed = "malformed page cursor: ";
+        /**
+         * @param cursor an encoded cursor
+         * @return a decoded cursor, or null if none was supplied
+         * @exception IllegalArgumentException if the supplied cursor was malformed
+         */
+        public static Cursor decode(String cursor) {
+            if (isEmpty(cursor)) return null;
+            Cursor result = nullOrTryQuietly(() -> {
+                String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                String[] parts = text.split(Joint, 2);
+                return new Cursor(parts[1], Long.parseLong(parts[0]));
+            });
+
+            if (hasNone(result)) throw new IllegalArgumentException(Malformed + cursor);
+            return result;
+        }
+
+        /**
+         * @param cursor an encoded cursor
+         * @return whether a cursor is either empty or well formed
+         */
+        public static boolean isValid(String cursor) {
+            return isEmpty(cursor) || hasOne(nullOrTryQuietly(() -> decode(cursor))); }
+
+    } // Cursor
+
+} // ItemPage<ItemType>
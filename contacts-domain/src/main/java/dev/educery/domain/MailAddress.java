@@ -2,6 +2,8 @@ package dev.educery.domain;
 
 import java.io.Serializable;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import javax.xml.bind.annotation.*;
 import javax.validation.constraints.*;
 
@@ -19,8 +21,12 @@ import org.springframework.util.StringUtils;
  * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "addresses")
 @Table(name = "mail_address", indexes = {
-    @Index(name = "ix_address_hash", columnList = "hash_key")})
+    @Index(name = "ix_address_hash", columnList = "hash_key"),
+    @Index(name = "ix_address_city", columnList = "city"),
+    @Index(name = "ix_address_zip", columnList = "postal_code")})
 @XmlRootElement(name = "MailAddress", namespace = "##default")
 @SuppressWarnings("unchecked")
 public class MailAddress extends Hashed<MailAddress> implements Serializable {
@@ -51,7 +57,7 @@ public class MailAddress extends Hashed<MailAddress> implements Serializable {
     /**
      * @return a count of saved addresses
      */
-    public static int count() { return (int) SampleAddress.getStore().count(); }
+    public static int count() { return (int) SampleAddress.countItems(); }
     public static MailAddress fromJSON(String json) { return ModelCodec.to(MailAddress.class).fromJSON(json); }
     public String toJSON() { return ModelCodec.from(this).toJSON(); }
     protected MailAddress makeDirty() { markDirty(); return this; }
@@ -2,6 +2,8 @@ package dev.educery.domain;
 
 import java.io.Serializable;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import javax.xml.bind.annotation.*;
 
 import dev.educery.storage.Hashed;
@@ -15,6 +17,8 @@ import dev.educery.codecs.ModelCodec;
  * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "phones")
 @Table(name = "phone_number", indexes = {
     @Index(name = "ix_phone_hash", columnList = "hash_key")})
 @XmlRootElement(name = "PhoneNumber", namespace = "##default")
@@ -28,7 +32,7 @@ public class PhoneNumber extends Hashed<PhoneNumber> implements Serializable {
     /**
      * @return a count of saved phone numbers
      */
-    public static int count() { return (int) SamplePhone.getStore().count(); }
+    public static int count() { return (int) SamplePhone.countItems(); }
     public static PhoneNumber fromJSON(String json) { return ModelCodec.to(PhoneNumber.class).fromJSON(json); }
     public String toJSON() { return ModelCodec.from(this).toJSON(); }
 
@@ -1,17 +1,25 @@
 package dev.educery.facets;
 
 import java.util.*;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 import com.webcohesion.enunciate.metadata.rs.*;
 import dev.educery.context.SpringContext;
 
 import dev.educery.domain.Contact;
+import dev.educery.domain.ItemBatch;
 import dev.educery.domain.ItemBrief;
+import dev.educery.domain.ItemPage;
 import dev.educery.domain.ItemPart;
 
 /**
  * Maintains details for each registered Contact.
+ * Contacts and their pages carry strong entity tags derived from their content hashes,
+ * so clients may revalidate them with If-None-Match, and get 304 (not modified) while unchanged.
  *
  * @author nik <nikboyd@sonic.net>
  */
@@ -26,15 +34,39 @@ public interface IContactService {
     public static final String CheckPath = ItemPath + "/check";
     public static final String FirstPath = ItemPath + "/first";
     public static final String HashIdPath = ItemPath + "/hash";
+    public static final String BatchPath = ItemPath + "/batch";
+    public static final String HashBatchPath = HashIdPath + "/batch";
     public static final String CountPath = ItemPath + "/count";
     public static final String BriefPath = ItemPath + "/briefs";
     public static final String PartPath  = ItemPath + "/part";
+    public static final String SearchPath = ItemPath + "/search";
+    public static final String StatsPath = ItemPath + "/stats";
 
     public static final String Type = "idType";
     public static final String Value = "contactID";
     public static final String Name = "name";
     public static final String City = "city";
     public static final String Zip = "zip";
+    public static final String Limit = "limit";
+    public static final String Cursor = "cursor";
+    public static final String Sort = "sort";
+    public static final String Text = "text";
+    public static final String RequestKey = "Idempotency-Key";
+    public static final int BatchLimit = 200; // IDs per batch request, well within the database bind parameter limits
+
+    /**
+     * Marks a method that may load many contacts, so that its calls get admitted as scans.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public static @interface Scan { }
+
+    /**
+     * Marks a method that changes contacts, so that its calls get admitted as writes.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public static @interface Write { }
 
     /**
      * Counts saved contacts.
@@ -48,6 +80,18 @@ public interface IContactService {
         @ResponseCode(code = 200, condition = "a count of contacts")})
     public Response countItems();
 
+    /**
+     * Reports the statistics of the service caches.
+     * @return Contains the named cache statistics.
+     */
+    @GET
+    @Path(StatsPath)
+    @TypeHint(Map.class)
+    @Produces({MediaType.APPLICATION_JSON})
+    @StatusCodes({
+        @ResponseCode(code = 200, condition = "named cache statistics")})
+    public Response getStatistics();
+
     /**
      * Finds the first contact alphabetically.
      * @return Contains the first contact.
@@ -62,36 +106,82 @@ public interface IContactService {
     public Response findFirstContact();
 
     /**
-     * Lists briefs of selected contacts.
+     * Lists a page of briefs of selected contacts.
+     * Names match case-insensitively anywhere in a contact name, or only at its start when ending with '*'.
      * @param name a contact full name or name pattern
-     * @return Contains a list of the selected contact briefs.
+     * @param limit a page size, or zero for the default page size
+     * @param cursor the next cursor from a previous page, or empty for the first page
+     * @param sort 'name' for ascending order (default), or '-name' for descending order
+     * @param version the entity tag of a previously fetched page, if any
+     * @return Contains a page of the selected contact briefs, with a cursor for the next page.
      */
+    @Scan
     @GET
     @Path(BriefPath)
-    @TypeHint(ItemBrief[].class)
+    @TypeHint(ItemPage.Briefs.class)
     @Produces({MediaType.APPLICATION_JSON})
     @StatusCodes({
-        @ResponseCode(code = 200, condition = "selected contact briefs")})
+        @ResponseCode(code = 200, condition = "selected contact briefs"),
+        @ResponseCode(code = 400, condition = "malformed cursor"),
+        @ResponseCode(code = 304, condition = "unchanged since the tagged version")})
     public Response listBriefs(
-        @QueryParam(Name) String name);
+        @QueryParam(Name) String name,
+        @QueryParam(Limit) int limit,
+        @QueryParam(Cursor) String cursor,
+        @QueryParam(Sort) String sort,
+        @HeaderParam(HttpHeaders.IF_NONE_MATCH) String version);
 
     /**
-     * Lists the selected contacts.
+     * Lists a page of the selected contacts.
+     * Names match case-insensitively anywhere in a contact name, or only at its start when ending with '*'.
      * @param name a contact full name or name pattern
-     * @param city a city name or pattern
+     * @param city a city name
      * @param zip a zip code
-     * @return Contains a list of the selected contacts.
+     * @param limit a page size, or zero for the default page size
+     * @param cursor the next cursor from a previous page, or empty for the first page
+     * @param sort 'name' for ascending order (default), or '-name' for descending order
+     * @param version the entity tag of a previously fetched page, if any
+     * @return Contains a page of the selected contacts, with a cursor for the next page.
      */
+    @Scan
     @GET
     @Path(ItemPath)
-    @TypeHint(Contact[].class)
+    @TypeHint(ItemPage.Contacts.class)
     @Produces({MediaType.APPLICATION_JSON})
     @StatusCodes({
-        @ResponseCode(code = 200, condition = "selected contacts")})
+        @ResponseCode(code = 200, condition = "selected contacts"),
+        @ResponseCode(code = 400, condition = "malformed cursor"),
+        @ResponseCode(code = 304, condition = "unchanged since the tagged version")})
     public Response listItems(
         @QueryParam(Name) String name,
         @QueryParam(City) String city,
-        @QueryParam(Zip) String zip);
+        @QueryParam(Zip) String zip,
+        @QueryParam(Limit) int limit,
+        @QueryParam(Cursor) String cursor,
+        @QueryParam(Sort) String sort,
+        @HeaderParam(HttpHeaders.IF_NONE_MATCH) String version);
+
+    /**
+     * Searches contacts for words found in their names, phones, emails, and mailing addresses.
+     * Contacts must contain all the words, the last of which may be partial.
+     * @param text some search words
+     * @param limit a page size, or zero for the default page size
+     * @param cursor the next cursor from a previous page, or empty for the first page
+     * @return Contains a page of the matching contacts, best matches first, with a cursor for the next page.
+     */
+    @Scan
+    @GET
+    @Path(SearchPath)
+    @TypeHint(ItemPage.Contacts.class)
+    @Produces({MediaType.APPLICATION_JSON})
+    @StatusCodes({
+        @ResponseCode(code = 200, condition = "ranked matching contacts"),
+        @ResponseCode(code = 400, condition = "malformed cursor"),
+        @ResponseCode(code = 503, condition = "search index not yet built")})
+    public Response searchItems(
+        @QueryParam(Text) String text,
+        @QueryParam(Limit) int limit,
+        @QueryParam(Cursor) String cursor);
 
     /**
      * Checks parts of a contact for duplications.
@@ -113,8 +203,10 @@ public interface IContactService {
     /**
      * Creates a contact part and associates it.
      * @param partJSON contains contact part details
+     * @param requestKey identifies the request, so that its retries create the part only once
      * @return Contains the new part ID.
      */
+    @Write
     @POST
     @Path(PartPath)
     @TypeHint(ItemBrief.class)
@@ -123,15 +215,20 @@ public interface IContactService {
     @StatusCodes({
         @ResponseCode(code = 410, condition = "missing contact"),
         @ResponseCode(code = 409, condition = "validation problems"),
+        @ResponseCode(code = 422, condition = "an earlier request with the same key had another body"),
+        @ResponseCode(code = 503, condition = "an earlier request with the same key is still running"),
         @ResponseCode(code = 201, condition = "created a contact part")})
     public Response createPart(
-        @TypeHint(ItemPart.class) String partJSON);
+        @TypeHint(ItemPart.class) String partJSON,
+        @HeaderParam(RequestKey) String requestKey);
 
     /**
      * Creates and registers a new contact.
      * @param itemJSON contains contact details
+     * @param requestKey identifies the request, so that its retries create the contact only once
      * @return Contains the contact IDs usable for retrieval.
      */
+    @Write
     @POST
     @Path(ItemPath)
     @TypeHint(ItemBrief.class)
@@ -139,15 +236,20 @@ public interface IContactService {
     @Consumes({MediaType.APPLICATION_JSON})
     @StatusCodes({
         @ResponseCode(code = 409, condition = "validation problems"),
+        @ResponseCode(code = 422, condition = "an earlier request with the same key had another body"),
+        @ResponseCode(code = 503, condition = "an earlier request with the same key is still running"),
         @ResponseCode(code = 201, condition = "created a contact")})
     public Response createItem(
-        @TypeHint(Contact.class) String itemJSON);
+        @TypeHint(Contact.class) String itemJSON,
+        @HeaderParam(RequestKey) String requestKey);
 
     /**
      * Saves changes to an existing contact.
      * @param itemJSON contains contact details
+     * @param requestKey identifies the request, so that its retries save the contact only once
      * @return Contains the contact IDs usable for retrieval.
      */
+    @Write
     @PUT
     @Path(ItemPath)
     @TypeHint(ItemBrief.class)
@@ -156,13 +258,17 @@ public interface IContactService {
     @StatusCodes({
         @ResponseCode(code = 200, condition = "saved a contact"),
         @ResponseCode(code = 409, condition = "missing contact ID"),
-        @ResponseCode(code = 410, condition = "missing contact")})
+        @ResponseCode(code = 410, condition = "missing contact"),
+        @ResponseCode(code = 422, condition = "an earlier request with the same key had another body"),
+        @ResponseCode(code = 503, condition = "an earlier request with the same key is still running")})
     public Response saveItem(
-        @TypeHint(Contact.class) String itemJSON);
+        @TypeHint(Contact.class) String itemJSON,
+        @HeaderParam(RequestKey) String requestKey);
 
     /**
      * Gets a registered contact.
      * @param itemID identifies a contact
+     * @param version the entity tag of a previously fetched contact, if any
      * @return Contains the details of a contact (if registered).
      */
     @GET
@@ -171,9 +277,11 @@ public interface IContactService {
     @Produces({MediaType.APPLICATION_JSON})
     @StatusCodes({
         @ResponseCode(code = 200, condition = "found a contact"),
+        @ResponseCode(code = 304, condition = "unchanged since the tagged version"),
         @ResponseCode(code = 410, condition = "missing contact")})
     public Response getItem(
-        @PathParam(ID) long itemID);
+        @PathParam(ID) long itemID,
+        @HeaderParam(HttpHeaders.IF_NONE_MATCH) String version);
 
     /**
      * Gets a registered contact with lookup based on hash of the supplied ID.
@@ -197,17 +305,35 @@ public interface IContactService {
         @QueryParam(Type) Contact.Type idType,
         @QueryParam(Value) String itemID);
 
+    /**
+     * Gets some registered contacts with a single query.
+     * @param itemIDs identify some contacts
+     * @return Contains the details of each registered contact, mapped from its ID.
+     */
+    @Scan
+    @GET
+    @Path(BatchPath)
+    @TypeHint(ItemBatch.Contacts.class)
+    @Produces({MediaType.APPLICATION_JSON})
+    @StatusCodes({
+        @ResponseCode(code = 200, condition = "found contacts, omitting any missing ones"),
+        @ResponseCode(code = 413, condition = "more IDs than the BatchLimit")})
+    public Response getItems(
+        @QueryParam(ID) List<Long> itemIDs);
+
     /**
      * Deletes a registered contact.
      * @param itemID identifies a contact
      * @return Indicates whether a contact was deleted.
      */
+    @Write
     @DELETE
     @Path(ItemIdPath)
     @TypeHint(List.class)
     @StatusCodes({
         @ResponseCode(code = 200, condition = "deleted a contact"),
-        @ResponseCode(code = 202, condition = "no contact found")})
+        @ResponseCode(code = 202, condition = "no contact found"),
+        @ResponseCode(code = 409, condition = "the contact could not be deleted")})
     public Response deleteItem(
         @PathParam(ID) long itemID);
 
@@ -222,16 +348,55 @@ public interface IContactService {
      * @param itemID identifies a contact
      * @return Indicates whether a contact was deleted.
      */
+    @Write
     @DELETE
     @Path(HashIdPath)
     @Produces({MediaType.APPLICATION_JSON})
     @StatusCodes({
         @ResponseCode(code = 200, condition = "deleted a contact"),
-        @ResponseCode(code = 202, condition = "no contact found")})
+        @ResponseCode(code = 202, condition = "no contact found"),
+        @ResponseCode(code = 409, condition = "the contact could not be deleted")})
     public Response deleteItemWithHash(
         @QueryParam(Type) Contact.Type idType,
         @QueryParam(Value) String itemID);
 
+    /**
+     * Deletes some registered contacts within a single transaction.
+     * @param itemIDs identify some contacts
+     * @return Contains a status for each ID: 200 if its contact was deleted, 202 if none was found,
+     * 409 if its contact could not be deleted.
+     */
+    @Write
+    @DELETE
+    @Path(BatchPath)
+    @TypeHint(ItemBatch.Statuses.class)
+    @Produces({MediaType.APPLICATION_JSON})
+    @StatusCodes({
+        @ResponseCode(code = 200, condition = "the status of each deletion"),
+        @ResponseCode(code = 413, condition = "more IDs than the BatchLimit")})
+    public Response deleteItems(
+        @QueryParam(ID) List<Long> itemIDs);
+
+    /**
+     * Deletes some registered contacts within a single transaction, with lookups based on hashes of the supplied IDs.
+     * Each ID deletes the first contact found, as with deleteItemWithHash.
+     * @param idType indicates a kind of ID: name, phone, or email
+     * @param itemIDs identify some contacts
+     * @return Contains a status for each ID: 200 if its contact was deleted, 202 if none was found,
+     * 409 if its contact could not be deleted.
+     */
+    @Write
+    @DELETE
+    @Path(HashBatchPath)
+    @TypeHint(ItemBatch.Statuses.class)
+    @Produces({MediaType.APPLICATION_JSON})
+    @StatusCodes({
+        @ResponseCode(code = 200, condition = "the status of each deletion"),
+        @ResponseCode(code = 413, condition = "more IDs than the BatchLimit")})
+    public Response deleteItemsWithHash(
+        @QueryParam(Type) Contact.Type idType,
+        @QueryParam(Value) List<String> itemIDs);
+
     static final String ConfigurationFile = "/service-client.xml";
     static public IContactService loadProxy() {
         return SpringContext.named(ConfigurationFile).getBean(IContactService.class); }
@@ -39,7 +39,7 @@ public class ContactView implements Logging {
 
     static final ClientProxy Contacts = new ClientProxy();
     public static List<ContactView> collectViews(String start) {
-        List<Contact> cs = Contacts.listContactsLike(start);
+        List<Contact> cs = Contacts.listContactsStarting(start);
         List<ContactView> results = new ArrayList();
         cs.forEach((c) -> { results.add(new ContactView(c)); });
         return results;
@@ -3,6 +3,8 @@ package dev.educery.services;
 import dev.educery.codecs.ModelCodec;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.BiFunction;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -14,6 +16,8 @@ import static dev.educery.utils.Utils.wrap;
 
 /**
  * A client-side service proxy for wrapping IContactService for tests.
+ * Remembers its recent tagged responses, and revalidates them, so unchanged contacts and lists cost only a 304.
+ * Sends each write with an Idempotency-Key, so that a write that failed in transit may be retried safely.
  *
  * @author nik <nikboyd@sonic.net>
  * @see "Copyright 2010,2021 Nikolas S Boyd."
@@ -33,22 +37,62 @@ public class ClientProxy implements Logging {
     public <R> List<R> emptyOr(Function<String, List<R>> f, int code) {
         return (r.getStatus() == code) ? f.apply(readJSON()) : new ArrayList(); }
 
+    static final int TaggedLimit = 100;
+    private final Map<String, String[]> tagged = Collections.synchronizedMap( // request -> { tag, json }
+        new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > TaggedLimit; }
+        });
+
+    /**
+     * Makes a request, revalidating its last tagged response, if any.
+     * @param request identifies a request
+     * @param call makes the request, with the entity tag of its last response (if any)
+     * @return the JSON of a fresh or unchanged response, or null if the request failed
+     */
+    protected String revalidated(String request, Function<String, Response> call) {
+        String[] last = tagged.get(request);
+        r = call.apply(last == null ? null : last[0]);
+        if (r.getStatus() == NOT_MODIFIED && last != null) return last[1];
+        if (r.getStatus() != OK) return null;
+
+        String json = readJSON();
+        if (r.getEntityTag() != null) tagged.put(request, new String[] { r.getEntityTag().toString(), json });
+        return json;
+    }
+
+    static final int Retries = 1;
+    /**
+     * Makes a write request, retrying it (with the same request key) if it fails in transit, e.g., on a timeout.
+     * @param write makes the request with a request key
+     * @return the response
+     */
+    protected Response written(Function<String, Response> write) {
+        String requestKey = UUID.randomUUID().toString();
+        for (int retries = Retries; retries > 0; retries--) {
+            try { return write.apply(requestKey); }
+            catch (ProcessingException e) { warn(e); }
+        }
+        return write.apply(requestKey);
+    }
+
     static final String ActualStatus = "actual response: %d";
     protected String actualStatus(Response r) { return String.format(ActualStatus, r.getStatus()); }
 
     static final int OK = Status.OK.getStatusCode();
+    static final int NOT_MODIFIED = Status.NOT_MODIFIED.getStatusCode();
     public ItemBrief countContacts() {
         r = contacts().countItems();
         return nullOr((json) -> ItemBrief.fromJSON(json), OK); }
 
     static final int CREATED = Status.CREATED.getStatusCode();
     public ItemBrief createContact(Contact c) {
-        r = contacts().createItem(c.toJSON());
+        r = written((key) -> contacts().createItem(c.toJSON(), key));
         return nullOr((json) -> ItemBrief.fromJSON(json), CREATED); }
 
     public ItemBrief saveContact(Contact c) {
         if (c.getKey() == 0) return createContact(c);
-        r = contacts().saveItem(c.toJSON());
+        r = written((key) -> contacts().saveItem(c.toJSON(), key));
         return nullOr((json) -> ItemBrief.fromJSON(json), OK); }
 
     public List<String> checkContact(Contact c) {
@@ -61,12 +105,30 @@ public class ClientProxy implements Logging {
         return (r.getStatus() == OK) ? Contact.fromJSON(readJSON()) : null; }
 
     public ItemBrief savePart(ItemPart p) {
-        r = contacts().createPart(p.toJSON());
+        r = written((key) -> contacts().createPart(p.toJSON(), key));
         return nullOr((json) -> ItemBrief.fromJSON(json), CREATED); }
 
     public Contact getContact(Long id) {
-        r = contacts().getItem(id);
-        return nullOr((json) -> Contact.fromJSON(json), OK); }
+        String json = revalidated(ItemRequest + id, (tag) -> contacts().getItem(id, tag));
+        return json == null ? null : Contact.fromJSON(json); }
+
+    static final int BatchSize = IContactService.BatchLimit; // also keeps each request URI within the header limits
+    static <T> List<List<T>> batches(List<T> itemIDs) {
+        ArrayList<List<T>> results = new ArrayList<>();
+        for (int index = 0; index < itemIDs.size(); index += BatchSize) {
+            results.add(itemIDs.subList(index, Math.min(itemIDs.size(), index + BatchSize)));
+        }
+        return results; }
+
+    public ItemBatch.Contacts getContacts(List<Long> keys) {
+        ItemBatch.Contacts results = new ItemBatch.Contacts();
+        for (List<Long> batch : batches(keys)) {
+            r = contacts().getItems(batch);
+            ItemBatch.Contacts found = nullOr((json) -> ItemBatch.Contacts.fromJSON(json), OK);
+            if (found == null) return null;
+            results.putAll(found);
+        }
+        return results; }
 
     public List<Contact> findContact(PhoneNumber p) {
         r = contacts().getItemWithHash(Type.phone, p.formatValue());
@@ -80,17 +142,68 @@ public class ClientProxy implements Logging {
         r = contacts().getItemWithHash(Type.name, name);
         return emptyOr((json) -> Contact.listFromJSON(json), OK); }
 
+    static final String ItemRequest = "item:";
+    static final String ListRequest = "list:";
+    static final String BriefRequest = "briefs";
+    static final String PageMark = "@";
     public List<Contact> listContactsLike(String name) {
-        r = contacts().listItems(name, "", ""); // provisional
-        return emptyOr((json) -> Contact.listFromJSON(json), OK); }
+        return listContacts(name); }
+
+    public List<Contact> listContactsStarting(String prefix) {
+        return listContacts(prefix + "*"); } // prefix match
+
+    private List<Contact> listContacts(String name) {
+        return allPages(ListRequest + name,
+            (cursor, tag) -> contacts().listItems(name, "", "", 0, cursor, "", tag),
+            (json) -> ItemPage.Contacts.fromJSON(json)); }
 
     public List<ItemBrief> listAllContactBriefs() {
-        r = contacts().listBriefs("");
-        return emptyOr((json) -> ItemBrief.listFromJSON(json), OK); }
+        return allPages(BriefRequest,
+            (cursor, tag) -> contacts().listBriefs("", 0, cursor, "", tag),
+            (json) -> ItemPage.Briefs.fromJSON(json)); }
+
+    /**
+     * Lists every page of a listing, following the next cursor of each page, and revalidating each page.
+     * @param request identifies a listing
+     * @param call requests a page, given its cursor and the entity tag of its last response (if any)
+     * @param page decodes a page
+     * @return the items from all pages, or those found before a request failed
+     */
+    private <ItemType> List<ItemType> allPages(String request,
+            BiFunction<String, String, Response> call, Function<String, ItemPage<ItemType>> page) {
+        ArrayList<ItemType> results = new ArrayList<>();
+        String cursor = "";
+        do {
+            String pageCursor = cursor;
+            String json = revalidated(request + PageMark + pageCursor, (tag) -> call.apply(pageCursor, tag));
+            if (json == null) break;
+
+            ItemPage<ItemType> items = page.apply(json);
+            results.addAll(items.getItems());
+            cursor = items.hasNext() ? items.getNext() : "";
+        } while (!cursor.isEmpty());
+        return results;
+    }
 
     static final int ACCEPTED = Status.ACCEPTED.getStatusCode();
     public boolean deleteContact(Long key) {
         r = contacts().deleteItem(key);
         return (r.getStatus() == OK || r.getStatus() == ACCEPTED); }
 
+    public ItemBatch.Statuses deleteContacts(List<Long> keys) {
+        return deleteBatches(keys, (batch) -> contacts().deleteItems(batch)); }
+
+    public ItemBatch.Statuses deleteContacts(Type idType, List<String> itemIDs) {
+        return deleteBatches(itemIDs, (batch) -> contacts().deleteItemsWithHash(idType, batch)); }
+
+    private <T> ItemBatch.Statuses deleteBatches(List<T> itemIDs, Function<List<T>, Response> deletion) {
+        ItemBatch.Statuses results = new ItemBatch.Statuses();
+        for (List<T> batch : batches(itemIDs)) {
+            r = deletion.apply(batch);
+            ItemBatch.Statuses statuses = nullOr((json) -> ItemBatch.Statuses.fromJSON(json), OK);
+            if (statuses == null) return null;
+            results.putAll(statuses);
+        }
+        return results; }
+
 } // ClientProxy
@@ -7,6 +7,8 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.apache.coyote.ProtocolHandler;
+import java.util.concurrent.ExecutorService;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -19,11 +21,14 @@ import static dev.educery.server.MainController.ConfigurationFile;
 import static dev.educery.server.MainController.FacadePackage;
 import static dev.educery.server.MainController.StoragePackage;
 import dev.educery.utils.Logging;
+import dev.educery.services.FacadeInvoker;
 import static dev.educery.utils.Utils.hasSome;
 import org.springframework.context.ConfigurableApplicationContext;
 
 /**
  * Launches embedded Tomcat hosting CXF servlet.
+ * Tomcat may run its requests on virtual threads (on Java 21 and later), when server.threads.virtual=true.
+ * Its connector may be tuned with the standard server.tomcat.* properties, configured in db.properties.
  *
  * @author nik <nikboyd@sonic.net>
  * @see "Copyright 2010,2021 Nikolas S Boyd."
@@ -51,6 +56,9 @@ public class MainController extends WebMvcConfigurerAdapter implements Logging {
     @Value("${spring.profiles.active:}")
     String springProfiles;
 
+    @Value("${server.threads.virtual:false}")
+    boolean virtualThreads;
+
     static ConfigurableApplicationContext ServiceContext;
     public static void shutDown() { ServiceContext.close(); }
     public static void main(String... args) { ServiceContext = startApplication(args); }
@@ -69,7 +77,18 @@ public class MainController extends WebMvcConfigurerAdapter implements Logging {
     static final String StartMessage = "hosting service at %s:%d with profiles '%s'";
     @Bean public TomcatServletWebServerFactory containerFactory() {
         report(String.format(StartMessage, serverAddress, serverPort, springProfiles));
-        return new TomcatServletWebServerFactory(Empty, serverPort);
+        TomcatServletWebServerFactory result = new TomcatServletWebServerFactory(Empty, serverPort);
+        if (virtualThreads) result.addProtocolHandlerCustomizers(handler -> runVirtually(handler));
+        return result;
+    }
+
+    static final String VirtualMessage = "hosting service on virtual threads";
+    static final String PlatformMessage = "virtual threads need Java 21+, hosting service on platform threads";
+    private void runVirtually(ProtocolHandler handler) {
+        ExecutorService threads = FacadeInvoker.virtualThreads();
+        if (threads == null) { warn(PlatformMessage); return; }
+        handler.setExecutor(threads);
+        report(VirtualMessage);
     }
 
     @Bean public ServletRegistrationBean servletRegistration() {
@@ -0,0 +1,257 @@
+package dev.educery.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Service;
+import org.springframework.core.env.Environment;
+
+import dev.educery.facets.IContactService;
+import static dev.educery.utils.Utils.*;
+import static dev.educery.utils.Exceptional.*;
+import static dev.educery.utils.Logging.Empty;
+import static dev.educery.utils.Logging.isEmpty;
+
+/**
+ * Admits the calls of the contact service facade, so that bursts of calls cannot exhaust its heap and connections.
+ * Each call belongs to a class of traffic: cheap reads, scans (which may load many contacts), or writes,
+ * as marked on the methods of the contact service interface.
+ * Each client gets a token bucket per traffic class, which limits its sustained rate and its bursts of calls,
+ * and each traffic class limits the calls running at once. A throttled call gets rejected with 429 (too many requests),
+ * and a call beyond its class limit with 503 (service unavailable), both with a Retry-After. A rate or limit of zero
+ * disables it. Clients get identified by their remote addresses, unless a trusted proxy forwards their addresses
+ * in a configured header (see clientOf). Configured in db.properties, e.g.:
+ * <pre>
+ * service.admission.enabled=true
+ * service.admission.clients=10000
+ * service.admission.client.header=X-Forwarded-For
+ * service.admission.scans.rate=20
+ * service.admission.scans.burst=40
+ * service.admission.scans.concurrency=8
+ * </pre>
+ *
+ * <h4>AdmissionControl Responsibilities:</h4>
+ * <ul>
+ * <li>knows the traffic class of each facade call</li>
+ * <li>knows the client of each facade call</li>
+ * <li>knows a token bucket for each (recently active) client and traffic class</li>
+ * <li>knows the calls running in each traffic class</li>
+ * <li>rejects calls quickly when they exceed these limits</li>
+ * <li>reports its statistics</li>
+ * </ul>
+ *
+ * <h4>Client Responsibilities:</h4>
+ * <ul>
+ * <li>releases each admission once its call completes</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class AdmissionControl {
+
+    /**
+     * The classes of facade traffic.
+     */
+    public static enum Traffic { reads, scans, writes; }
+
+    static final Map<Method, Traffic> Classes = new ConcurrentHashMap<>();
+    /**
+     * Classifies a facade method by its marker (Scan or Write), declared on the method or its service interface.
+     * @param m a facade method
+     * @return the traffic class of a facade method
+     */
+    public static Traffic classify(Method m) {
+        return Classes.computeIfAbsent(m, method ->
+            isMarked(method, IContactService.Write.class) ? Traffic.writes :
+            isMarked(method, IContactService.Scan.class) ? Traffic.scans : Traffic.reads);
+    }
+
+    private static boolean isMarked(Method m, Class<? extends Annotation> marker) {
+        if (m.isAnnotationPresent(marker)) return true;
+        for (Class<?> facet : m.getDeclaringClass().getInterfaces()) {
+            Method declared = nullOrTryQuietly(() -> facet.getMethod(m.getName(), m.getParameterTypes()));
+            if (hasOne(declared) && declared.isAnnotationPresent(marker)) return true;
+        }
+        return false;
+    }
+
+    private final boolean enabled;
+    private final String clientHeader;
+    private final EnumMap<Traffic, Limits> limits = new EnumMap<>(Traffic.class);
+    private final Cache<String, TokenBucket> buckets;
+
+    static final String Settings = "service.admission.";
+    static final double[][] Defaults = { { 200, 400, 64 }, { 20, 40, 8 }, { 50, 100, 16 } }; // rate, burst, concurrency
+    public AdmissionControl(Environment settings) {
+        this.enabled = settings.getProperty(Settings + "enabled", Boolean.class, true);
+        this.clientHeader = settings.getProperty(Settings + "client.header", Empty).trim();
+        this.buckets = Caffeine.newBuilder()
+            .maximumSize(Math.max(0, settings.getProperty(Settings + "clients", Long.class, 10000L)))
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .build();
+
+        for (Traffic t : Traffic.values()) {
+            double[] values = Defaults[t.ordinal()];
+            limits.put(t, new Limits(
+                settings.getProperty(Settings + t + ".rate", Double.class, values[0]),
+                settings.getProperty(Settings + t + ".burst", Double.class, values[1]),
+                settings.getProperty(Settings + t + ".concurrency", Integer.class, (int) values[2])));
+        }
+    }
+
+    /**
+     * The admission of a facade call, or its rejection.
+     */
+    public static class Admission {
+
+        private final Semaphore running;
+        private final Response rejection;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Admission(Semaphore running, Response rejection) { this.running = running; this.rejection = rejection; }
+        static Admission admitted(Semaphore running) { return new Admission(running, null); }
+        static Admission rejected(Response rejection) { return new Admission(null, rejection); }
+
+        public boolean isAdmitted() { return hasNone(rejection); }
+        public Response rejection() { return this.rejection; }
+
+        /**
+         * Releases this admission, once its call completes.
+         */
+        public void release() { if (hasOne(running) && released.compareAndSet(false, true)) running.release(); }
+
+    } // Admission
+
+    static final String Comma = ",";
+    /**
+     * Identifies the client of a request by its remote address, by default. Behind a proxy (or load balancer),
+     * that's the address of the proxy, so all its clients would share their buckets. So, a deployment behind
+     * a trusted proxy should configure the header in which that proxy forwards client addresses. Then, the last
+     * address in that header identifies the client, as the trusted proxy appended it (clients may spoof the others).
+     * Without a trusted proxy, leave the header unset, as clients could otherwise choose their own identities.
+     * @param request a request, if any
+     * @return a client identity
+     */
+    public String clientOf(HttpServletRequest request) {
+        if (hasNone(request)) return Empty;
+        String forwarded = isEmpty(clientHeader) ? Empty : request.getHeader(clientHeader);
+        if (isEmpty(forwarded)) return request.getRemoteAddr();
+        String[] addresses = forwarded.split(Comma);
+        String result = addresses[addresses.length - 1].trim();
+        return isEmpty(result) ? request.getRemoteAddr() : result;
+    }
+
+    static final Admission Unlimited = Admission.admitted(null);
+    static final int TooManyRequests = 429;
+    static final long RetrySoon = 1;
+
+    /**
+     * @param client identifies a client, e.g., by its address
+     * @param m a facade method
+     * @return an admission or rejection of a call
+     */
+    public Admission admit(String client, Method m) {
+        if (!enabled) return Unlimited;
+        Traffic traffic = classify(m);
+        Limits limit = limits.get(traffic);
+
+        // check the running calls first, so that a shed call does not spend a token of its client
+        Admission result = hasNone(limit.running) ? Unlimited : Admission.admitted(limit.running);
+        if (hasOne(limit.running) && !limit.running.tryAcquire()) {
+            limit.shed.increment();
+            return Admission.rejected(retryLater(Status.SERVICE_UNAVAILABLE.getStatusCode(), RetrySoon));
+        }
+
+        if (limit.rate > 0) {
+            TokenBucket bucket = buckets.get(client + ResponseCache.Joint + traffic, k -> new TokenBucket(limit));
+            long waitNanos = bucket.take();
+            if (waitNanos > 0) {
+                result.release();
+                limit.throttled.increment();
+                long seconds = Math.max(RetrySoon, (long) Math.ceil(waitNanos / TokenBucket.NanosPerSecond));
+                return Admission.rejected(retryLater(TooManyRequests, seconds));
+            }
+        }
+
+        limit.admitted.increment();
+        return result;
+    }
+
+    static Response retryLater(int status, long seconds) {
+        return Response.status(status).header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds)).build(); }
+
+    /**
+     * The limits of a traffic class.
+     */
+    static class Limits {
+
+        final double rate;
+        final double burst;
+        final Semaphore running;
+        final LongAdder admitted = new LongAdder();
+        final LongAdder throttled = new LongAdder();
+        final LongAdder shed = new LongAdder();
+
+        Limits(double rate, double burst, int concurrency) {
+            this.rate = rate;
+            this.burst = Math.max(1, burst);
+            this.running = concurrency > 0 ? new Semaphore(concurrency) : null;
+        }
+
+    } // Limits
+
+    /**
+     * Refills its tokens at a steady rate (per second), up to its burst size.
+     */
+    static class TokenBucket {
+
+        static final double NanosPerSecond = 1e9;
+        private final double rate;
+        private final double burst;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        TokenBucket(Limits limits) { this.rate = limits.rate; this.burst = limits.burst; this.tokens = limits.burst; }
+
+        /**
+         * @return zero if a token was taken, otherwise how long (in nanoseconds) until a token will be available
+         */
+        synchronized long take() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) * rate / NanosPerSecond);
+            refilled = now;
+            if (tokens >= 1) { tokens -= 1; return 0; }
+            return (long) Math.ceil((1 - tokens) * NanosPerSecond / rate);
+        }
+
+    } // TokenBucket
+
+    static final String Prefix = "admission.";
+    static final String Dot = ".";
+    public Map<String, Number> statistics() {
+        HashMap<String, Number> results = new HashMap<>();
+        limits.forEach((traffic, limit) -> {
+            String prefix = Prefix + traffic + Dot;
+            results.put(prefix + "admitted", limit.admitted.sum());
+            results.put(prefix + "throttled", limit.throttled.sum());
+            results.put(prefix + "shed", limit.shed.sum());
+            if (hasOne(limit.running)) results.put(prefix + "available", limit.running.availablePermits());
+        });
+        results.put(Prefix + "clients", buckets.estimatedSize());
+        return results;
+    }
+
+} // AdmissionControl
@@ -1,56 +1,187 @@
 package dev.educery.services;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import javax.ws.rs.Path;
+import javax.persistence.EntityManagerFactory;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
-import org.apache.cxf.common.util.StringUtils;
 import org.springframework.stereotype.Service;
 
 import dev.educery.domain.*;
+import dev.educery.data.RegionCaches;
+import dev.educery.storage.KeyCache;
+import dev.educery.storage.ItemCount;
+import dev.educery.storage.HashFilter;
 import dev.educery.storage.StorageMechanism;
+import dev.educery.storage.SurrogatedItem;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import dev.educery.facets.IContactService;
 import static dev.educery.utils.Utils.*;
+import static dev.educery.utils.Logging.Empty;
+import static dev.educery.utils.Logging.isEmpty;
 
 /**
  * A service for maintaining Contacts and their Contact information.
+ * Queries run in read-only transactions, which skip Hibernate dirty checking and flushes.
+ * Updates validate, and then save or remove, within a short write transaction.
+ * Creates and saves that carry an Idempotency-Key run only once, so clients may retry them safely.
+ * Each call runs asynchronously on the bounded executor of a FacadeInvoker, which frees its request thread.
+ * Contacts and their pages get tagged with their content hashes, so unchanged ones may be revalidated cheaply.
+ * The hot reads (first contact, count, and pages) get cached as serialized bodies, which each update invalidates.
+ * Identical concurrent reads that miss the cache (and hash lookups) get merged into a single storage query.
+ * The timeouts of these transactions may be configured (in seconds) in db.properties:
+ * <pre>
+ * db.timeout.read.seconds=5
+ * db.timeout.list.seconds=15
+ * db.timeout.write.seconds=10
+ * </pre>
  *
  * @author nik <nikboyd@sonic.net>
  */
 @Service
-@Transactional
 @Path(IContactService.BasePath)
+@Transactional(readOnly = true, timeoutString = ContactFacade.ReadTimeout)
 public class ContactFacade implements IContactService {
 
+    static final String ReadTimeout = "${db.timeout.read.seconds:5}";
+    static final String ListTimeout = "${db.timeout.list.seconds:15}";
+
     @Autowired StorageMechanism.Registry registry;
+    @Autowired ContactSearch search;
+    @Autowired EntityManagerFactory entityManagerFactory;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired FacadeInvoker invoker;
+    @Autowired AdmissionControl admissions;
+    @Autowired ResponseCache responses;
+    @Autowired IdempotentWrites writes;
+    @Autowired SingleFlight flights;
+    @Value("${db.timeout.read.seconds:5}") private int readTimeout;
+    @Value("${db.timeout.list.seconds:15}") private int listTimeout;
+    @Value("${db.timeout.write.seconds:10}") private int writeTimeout;
+
+    private <ResultType> ResultType writing(Supplier<ResultType> work) {
+        TransactionTemplate writer = new TransactionTemplate(transactionManager);
+        writer.setTimeout(writeTimeout);
+        try { return writer.execute(status -> work.get()); }
+        finally { responses.invalidate(); flights.invalidate(); }
+    }
+
+    private <ResultType> ResultType reading(int timeout, Supplier<ResultType> work) {
+        TransactionTemplate reader = new TransactionTemplate(transactionManager);
+        reader.setReadOnly(true);
+        reader.setTimeout(timeout);
+        return reader.execute(status -> work.get());
+    }
+
+    /**
+     * @param key a response cache key
+     * @param version any entity tags supplied by a client (If-None-Match)
+     * @param timeout a read timeout
+     * @param source supplies a body from storage on a cache miss, or null if none was found
+     * @return 304 if the client has the current version, otherwise the (cached) body
+     */
+    private Response cached(String key, String version, int timeout, Supplier<ResponseCache.Body> source) {
+        ResponseCache.Body body = responses.fetch(key, () -> flights.join(key, () -> reading(timeout, source)));
+        if (hasNone(body)) return Response.status(Status.GONE).build();
+        if (matches(body.getTag(), version)) return Response.notModified(body.getTag()).build();
+        return Response.ok(body.getJSON(), MediaType.APPLICATION_JSON_TYPE).tag(body.getTag()).build();
+    }
 
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     @Override public Response countItems() {
-        int count = Contact.count();
-        ItemBrief b = new ItemBrief(count, "Contact.count");
-        return Response.ok(b.toJSON()).build();
+        return cached(ResponseCache.key(CountPath), Empty, readTimeout, () -> {
+            int count = Contact.count();
+            return ResponseCache.Body.from(new ItemBrief(count, "Contact.count"), count);
+        });
     }
 
+    @Override public Response getStatistics() {
+        Map<String, Number> results = new TreeMap<>(KeyCache.Registry.statistics());
+        results.putAll(HashFilter.Registry.statistics());
+        results.putAll(ItemCount.Registry.statistics());
+        results.putAll(RegionCaches.statistics(entityManagerFactory));
+        results.putAll(invoker.statistics());
+        results.putAll(admissions.statistics());
+        results.putAll(responses.statistics());
+        results.putAll(writes.statistics());
+        results.putAll(flights.statistics());
+        return Response.ok(results).build();
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     @Override public Response findFirstContact() {
-        Contact c = Contact.findFirst();
-        return hasNone(c) ? Response.status(Status.GONE).build() : Response.ok(c).build(); }
+        return cached(ResponseCache.key(FirstPath), Empty, readTimeout, () -> {
+            Contact c = Contact.findFirst();
+            return hasNone(c) ? null : ResponseCache.Body.from(c, c.contentHash());
+        });
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response listBriefs(String name, int limit, String cursor, String sort, String version) {
+        if (!ItemPage.Cursor.isValid(cursor)) return Response.status(Status.BAD_REQUEST).build();
+        String key = ResponseCache.key(BriefPath, name, limit, cursor, sort);
+        return cached(key, version, listTimeout, () -> {
+            ItemPage.Contacts results = selectPage(name, Empty, Empty, limit, cursor, sort);
+            return ResponseCache.Body.from(results.briefs(), results.contentHash());
+        });
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response listItems(
+            String name, String city, String zip, int limit, String cursor, String sort, String version) {
+        if (!ItemPage.Cursor.isValid(cursor)) return Response.status(Status.BAD_REQUEST).build();
+        String key = ResponseCache.key(ItemPath, name, city, zip, limit, cursor, sort);
+        return cached(key, version, listTimeout, () -> {
+            ItemPage.Contacts results = selectPage(name, city, zip, limit, cursor, sort);
+            return ResponseCache.Body.from(results, results.contentHash());
+        });
+    }
 
+    /**
+     * @param contentHash a content hash
+     * @param version any entity tags supplied by a client (If-None-Match)
+     * @param entity supplies a response entity
+     * @return 304 if the client has the current version, otherwise the tagged entity
+     */
+    private Response tagged(long contentHash, String version, Supplier<Object> entity) {
+        EntityTag tag = new EntityTag(Long.toHexString(contentHash));
+        return matches(tag, version) ?
+            Response.notModified(tag).build() : Response.ok(entity.get()).tag(tag).build();
+    }
 
-    @Override public Response listBriefs(String name) {
-        List<ItemBrief> results = new ArrayList();
-        if (StringUtils.isEmpty(name)) {
-            for (Contact c : Contact.storage().findAll()) results.add(c.brief());
-        } else {
-            List<Contact> items = Contact.like(name);
-            items.forEach((c) -> results.add(c.brief()));
+    static final String AnyTag = "*";
+    static final String WeakPrefix = "W/";
+    static final String Quote = "\"";
+    static final String Comma = ",";
+    private static boolean matches(EntityTag tag, String version) {
+        if (isEmpty(version)) return false;
+        for (String candidate : version.split(Comma)) { // weak comparison, as If-None-Match requires
+            String value = candidate.trim();
+            if (value.startsWith(WeakPrefix)) value = value.substring(WeakPrefix.length());
+            if (value.equals(AnyTag) || value.replace(Quote, Empty).equals(tag.getValue())) return true;
         }
-        return Response.ok(results).build();
+        return false;
     }
 
-    @Override public Response listItems(String name, String city, String zip) {
-        List<Contact> results = Contact.like(name);
-        return Response.ok(results).build();
+    private ItemPage.Contacts selectPage(String name, String city, String zip, int limit, String cursor, String sort) {
+        return ContactQuery.named(name).withCity(city).withZip(zip)
+            .withLimit(limit).withCursor(cursor).withSort(sort).page(); }
+
+    @Transactional(readOnly = true, timeoutString = ListTimeout)
+    @Override public Response searchItems(String text, int limit, String cursor) {
+        if (!ContactIndex.isValidCursor(cursor)) return Response.status(Status.BAD_REQUEST).build();
+        if (!search.isReady()) return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        return Response.ok(search.page(text, limit, cursor)).build();
     }
 
     @Override public Response checkParts(String itemJSON) {
@@ -62,61 +193,86 @@ public class ContactFacade implements IContactService {
             Response.ok(messages).status(Status.CONFLICT).build() ;
     }
 
-    @Override public Response createItem(String itemJSON) {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response createItem(String itemJSON, String requestKey) {
+        return writes.once(ItemPath, requestKey, itemJSON, () -> createItem(itemJSON)); }
+
+    private Response createItem(String itemJSON) {
         Contact item = Contact.fromJSON(itemJSON);
-        List<String> messages = Contact.checkParts(item);
-        if (messages.isEmpty()) {
-            ItemBrief b = ItemBrief.from(item.saveItem());
+        return writing(() -> {
+            List<String> messages = Contact.checkParts(item); // the save reuses these hash searches
+            if (!messages.isEmpty()) return Response.ok(messages).status(Status.CONFLICT).build();
+
+            ItemBrief b = ItemBrief.from(included(item.saveItem()));
             return Response.ok(b.toJSON()).status(Status.CREATED).build();
-        }
-        else {
-            return Response.ok(messages).status(Status.CONFLICT).build();
-        }
+        });
     }
 
-    @Override public Response saveItem(String itemJSON) {
+    private Contact included(Contact c) { search.include(c); return c; }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response saveItem(String itemJSON, String requestKey) {
+        return writes.once(ItemIdPath, requestKey, itemJSON, () -> saveItem(itemJSON)); }
+
+    private Response saveItem(String itemJSON) {
         Contact item = Contact.fromJSON(itemJSON);
         if (item.getKey() == 0) return Response.status(Status.CONFLICT).build();
 
-        Contact c = Contact.findKey(item.getKey());
-        if (hasNone(c)) return Response.status(Status.GONE).build();
+        return writing(() -> { // the save merges the contact found here, without loading it again
+            Contact stored = Contact.findKey(item.getKey());
+            if (hasNone(stored)) return Response.status(Status.GONE).build();
+            item.adoptUnchanged(stored); // so the save skips the unchanged parts
 
-        List<String> messages = Contact.checkParts(item);
-        if (messages.isEmpty()) {
-            c = item.saveItem();
-            ItemBrief b = ItemBrief.from(c);
+            List<String> messages = Contact.checkParts(item); // the save reuses these hash searches
+            if (!messages.isEmpty()) return Response.ok(messages).status(Status.CONFLICT).build();
+
+            ItemBrief b = ItemBrief.from(included(item.saveItem()));
             return Response.ok(b.toJSON()).build();
-        }
-        else {
-            return Response.ok(messages).status(Status.CONFLICT).build();
-        }
+        });
     }
 
-    @Override public Response getItem(long itemID) {
+    @Override public Response getItem(long itemID, String version) {
         Contact c = Contact.findKey(itemID);
-        return hasNone(c) ? Response.status(Status.GONE).build() : Response.ok(c).build(); }
+        return hasNone(c) ? Response.status(Status.GONE).build() : tagged(c.contentHash(), version, () -> c); }
 
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     @Override public Response getItemWithHash(Contact.Type idType, String itemID) {
+        String key = ResponseCache.key(HashIdPath, idType, itemID);
+        return Response.ok(flights.join(key, () -> reading(readTimeout, () -> findWithHash(idType, itemID)))).build();
+    }
+
+    private List<Contact> findWithHash(Contact.Type idType, String itemID) {
         switch (idType) {
-            case name:  return Response.ok(Contact.findNamed(itemID)).build();
-            case email: return Response.ok(Contact.findSimilar(EmailAddress.from(itemID))).build();
-            case phone: return Response.ok(Contact.findSimilar(PhoneNumber.from(itemID))).build();
+            case name:  return Contact.findNamed(itemID);
+            case email: return Contact.findSimilar(EmailAddress.from(itemID));
+            case phone: return Contact.findSimilar(PhoneNumber.from(itemID));
         }
-        Contact[] results = { }; return Response.ok(wrap(results)).build();
+        Contact[] results = { }; return wrap(results);
     }
 
-    @Override public Response deleteItem(long itemID) {
+    @Override public Response getItems(List<Long> itemIDs) {
+        if (oversized(itemIDs)) return Response.status(Status.REQUEST_ENTITY_TOO_LARGE).build();
+        return Response.ok(ItemBatch.Contacts.from(Contact.findKeys(itemIDs))).build(); }
+
+    private static boolean oversized(List<?> itemIDs) { return hasOne(itemIDs) && itemIDs.size() > BatchLimit; }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response deleteItem(long itemID) { return writing(() -> removeItem(itemID)); }
+    private Response removeItem(long itemID) {
         Contact c = Contact.findKey(itemID);
         if (hasNone(c)) return Response.accepted().build();
-        boolean gone = c.removeItem();
-        return Response.ok().build();
+        return Response.status(removed(c)).build();
     }
 
     private Response deleteFirst(List<Contact> cs) {
         if (cs.isEmpty()) return Response.accepted().build();
-        boolean gone = cs.get(0).removeItem(); return Response.ok().build(); }
+        return Response.status(removed(cs.get(0))).build(); }
 
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     @Override public Response deleteItemWithHash(Contact.Type idType, String itemID) {
+        return writing(() -> removeItemWithHash(idType, itemID)); }
+
+    private Response removeItemWithHash(Contact.Type idType, String itemID) {
         switch (idType) {
             case name: return deleteFirst(Contact.findNamed(itemID));
             case email: return deleteFirst(Contact.findSimilar(EmailAddress.from(itemID)));
@@ -125,8 +281,46 @@ public class ContactFacade implements IContactService {
         return Response.accepted().build();
     }
 
-    @Override public Response createPart(String partJSON) {
-        ItemPart p = ItemPart.fromJSON(partJSON);
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response deleteItems(List<Long> itemIDs) {
+        if (oversized(itemIDs)) return Response.status(Status.REQUEST_ENTITY_TOO_LARGE).build();
+        return writing(() -> Response.ok(removeItems(itemIDs, Contact.findKeys(itemIDs))).build()); }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response deleteItemsWithHash(Contact.Type idType, List<String> itemIDs) {
+        if (oversized(itemIDs)) return Response.status(Status.REQUEST_ENTITY_TOO_LARGE).build();
+        return writing(() -> Response.ok(removeItems(itemIDs, Contact.findWithHashes(idType, itemIDs))).build()); }
+
+    static final int Deleted = Status.OK.getStatusCode();
+    static final int Missing = Status.ACCEPTED.getStatusCode();
+    static final int Kept = Status.CONFLICT.getStatusCode();
+    private <IdType> ItemBatch.Statuses removeItems(List<IdType> itemIDs, Map<IdType, Contact> found) {
+        ItemBatch.Statuses results = new ItemBatch.Statuses();
+        if (hasNone(itemIDs)) return results;
+
+        HashMap<Long, Integer> removals = new HashMap<>(); // several IDs may find the same contact
+        itemIDs.forEach(itemID -> {
+            Contact c = found.get(itemID);
+            results.put(itemID, hasNone(c) ? Missing : removals.computeIfAbsent(c.getKey(), key -> removed(c)));
+        });
+        return results;
+    }
+
+    private int removed(Contact c) {
+        if (!c.removeItem()) return Kept;
+        search.exclude(c.getKey());
+        return Deleted;
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override public Response createPart(String partJSON, String requestKey) {
+        return writes.once(PartPath, requestKey, partJSON, () -> {
+            ItemPart p = ItemPart.fromJSON(partJSON);
+            return writing(() -> createPart(p));
+        });
+    }
+
+    private Response createPart(ItemPart p) {
         switch (p.type()) {
             case name:  return createItem(p);
             case phone: return createPhone(p);
@@ -138,42 +332,37 @@ public class ContactFacade implements IContactService {
     }
 
     private Response createItem(ItemPart p) {
-        Contact c = Contact.named(p.getName()).saveItem();
+        Contact c = included(Contact.named(p.getName()).saveItem());
         ItemBrief b = ItemBrief.from(c);
         return Response.ok(b.toJSON()).status(Status.CREATED).build();
     }
 
     private Response createPhone(ItemPart p) {
-        Contact c = Contact.find(p.getName());
-        if (hasNone(c)) return Response.status(Status.GONE).build();
-
-        PhoneNumber item = PhoneNumber.from(p.value());
-        c.withPhone(p.kind(), item).saveItem();
-        c = Contact.storage().findKey(c.getKey());
-        ItemBrief b = ItemBrief.from(c.getPhone(p.kind()));
-        return Response.ok(b.toJSON()).status(Status.CREATED).build();
-    }
+        return createMechanism(p,
+            c -> c.withPhone(p.kind(), PhoneNumber.from(p.value())), c -> c.getPhone(p.kind())); }
 
     private Response createEmail(ItemPart p) {
-        Contact c = Contact.find(p.getName());
-        if (hasNone(c)) return Response.status(Status.GONE).build();
-
-        EmailAddress item = EmailAddress.from(p.value());
-        c.withEmail(p.kind(), item).saveItem();
-        c = Contact.storage().findKey(c.getKey());
-        ItemBrief b = ItemBrief.from(c.getEmail(p.kind()));
-        return Response.ok(b.toJSON()).status(Status.CREATED).build();
-    }
+        return createMechanism(p,
+            c -> c.withEmail(p.kind(), EmailAddress.from(p.value())), c -> c.getEmail(p.kind())); }
 
     private Response createMail(ItemPart p) {
+        return createMechanism(p,
+            c -> c.withAddress(p.kind(), MailAddress.from(p.value())), c -> c.getAddress(p.kind())); }
+
+    /**
+     * Adds a new mechanism to a contact, within the current transaction.
+     * The saved contact holds its saved mechanisms, which carry their generated keys, so it needs no re-read.
+     * @param p a part request
+     * @param adding adds the new mechanism to a contact
+     * @param added gets the (saved) mechanism from a contact
+     * @return a brief of the new mechanism
+     */
+    private Response createMechanism(ItemPart p, UnaryOperator<Contact> adding, Function<Contact, SurrogatedItem> added) {
         Contact c = Contact.find(p.getName());
-        long hash = c.hashKey();
         if (hasNone(c)) return Response.status(Status.GONE).build();
 
-        MailAddress item = MailAddress.from(p.value());
-        c.withAddress(p.kind(), item).saveItem();
-        c = Contact.storage().findKey(c.getKey());
-        ItemBrief b = ItemBrief.from(c.getAddress(p.kind()));
+        Contact saved = included(adding.apply(c).saveItem());
+        ItemBrief b = ItemBrief.from(added.apply(saved));
         return Response.ok(b.toJSON()).status(Status.CREATED).build();
     }
 
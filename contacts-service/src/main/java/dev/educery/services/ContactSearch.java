@@ -0,0 +1,110 @@
+package dev.educery.services;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledExecutorService;
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import dev.educery.domain.*;
+import dev.educery.storage.StorageMechanism;
+import dev.educery.utils.Logging;
+import static dev.educery.utils.Utils.*;
+
+/**
+ * Maintains the full text index of contacts for the contact service.
+ * The index gets rebuilt from the primary database in the background once the service starts,
+ * and then kept current as contacts get saved and removed.
+ * A rebuild fills a fresh index, replays the changes that arrived during its scan, and then replaces the live index.
+ * A failed rebuild gets retried after a delay.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class ContactSearch implements Logging {
+
+    @Autowired StorageMechanism.Registry registry; // storage gets configured before any rebuild
+    @Autowired PrimaryScans scans;
+    @Value("${search.rebuild.retry.seconds:30}") private long retrySeconds;
+
+    private volatile ContactIndex index = new ContactIndex();
+    private List<Consumer<ContactIndex>> changes = null; // arrived during a rebuild, guarded by this
+    private volatile boolean ready = false;
+    public boolean isReady() { return this.ready; }
+
+    static final String Rebuilder = "contact-index";
+    private final ScheduledExecutorService rebuilder = PrimaryScans.scheduler(Rebuilder);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startRebuild() { rebuilder.execute(() -> rebuild()); }
+
+    static final String RebuildReport = "indexed %d contacts in %d msecs";
+    static final String RetryReport = "contact index rebuild failed, retrying in %d secs";
+    public void rebuild() {
+        synchronized (this) { this.changes = new ArrayList<>(); }
+        try {
+            long start = System.currentTimeMillis();
+            ContactIndex fresh = new ContactIndex();
+            int count = scans.scan(() -> fresh.rebuild());
+            synchronized (this) {
+                this.changes.forEach(change -> change.accept(fresh));
+                this.index = fresh;
+            }
+            report(format(RebuildReport, count, System.currentTimeMillis() - start));
+            this.ready = true;
+        }
+        catch (Exception ex) {
+            warn(ex);
+            warn(format(RetryReport, retrySeconds));
+            rebuilder.schedule(() -> rebuild(), Math.max(1, retrySeconds), TimeUnit.SECONDS);
+        }
+        finally {
+            synchronized (this) { this.changes = null; }
+        }
+    }
+
+    /**
+     * Includes a saved contact in the index once its transaction commits.
+     * @param c a saved contact
+     */
+    public void include(Contact c) {
+        long key = c.getKey();
+        Map<String, Float> terms = ContactIndex.termsOf(c);
+        afterCommit(() -> apply(target -> target.include(key, terms)));
+    }
+
+    /**
+     * Excludes a removed contact from the index once its transaction commits.
+     * @param key a contact key
+     */
+    public void exclude(long key) { afterCommit(() -> apply(target -> target.exclude(key))); }
+
+    private synchronized void apply(Consumer<ContactIndex> change) {
+        if (hasOne(this.changes)) this.changes.add(change); // replayed into the rebuilt index
+        change.accept(this.index);
+    }
+
+    /**
+     * @param text some search text
+     * @param limit a page size
+     * @param cursor a page cursor
+     * @return a ranked page of matching contacts
+     */
+    public ItemPage.Contacts page(String text, int limit, String cursor) { return index.page(text, limit, cursor); }
+
+    private void afterCommit(Runnable r) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) { r.run(); return; }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override public void afterCommit() { r.run(); }
+        });
+    }
+
+} // ContactSearch
@@ -0,0 +1,189 @@
+package dev.educery.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.cxf.jaxrs.JAXRSInvoker;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.transport.http.AbstractHTTPDestination;
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+
+import dev.educery.utils.Logging;
+import static dev.educery.utils.Exceptional.*;
+import static dev.educery.utils.Utils.hasNone;
+
+/**
+ * Invokes the contact service facade asynchronously, on a dedicated bounded executor.
+ * Each facade call returns a CompletionStage to CXF, which suspends its request until the call completes,
+ * so the request threads get freed while the storage work (and its JDBC calls) are in flight.
+ * The facade itself (and its client proxies) keep their synchronous IContactService signatures.
+ *
+ * <p>On Java 21 and later, each call runs on a virtual thread, and only the running calls hold a permit.
+ * Otherwise, calls run on a fixed pool of platform threads. Either way, when the configured threads and queue
+ * are all busy, further calls get rejected with 503 (service unavailable). Before then, each call must pass the
+ * AdmissionControl, which holds its admission until the call completes. Configured in db.properties, e.g.:</p>
+ * <pre>
+ * service.async.enabled=true
+ * service.async.virtual=true
+ * service.async.threads=64
+ * service.async.queue=1000
+ * </pre>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class FacadeInvoker extends JAXRSInvoker implements Logging {
+
+    private final boolean enabled;
+    private final Bounded executor;
+    private final AdmissionControl admissions;
+    private final LongAdder rejections = new LongAdder();
+
+    static final String ExecutorReport = "facade calls run on %s threads, %d at once, %d queued";
+    public FacadeInvoker(
+            @Value("${service.async.enabled:true}") boolean enabled,
+            @Value("${service.async.virtual:true}") boolean virtual,
+            @Value("${service.async.threads:64}") int threads,
+            @Value("${service.async.queue:1000}") int queueSize,
+            AdmissionControl admissions) {
+        this.enabled = enabled;
+        this.admissions = admissions;
+        ExecutorService virtualThreads = virtual ? virtualThreads() : null;
+        this.executor = hasNone(virtualThreads) ?
+            new Pooled(Math.max(1, threads), Math.max(0, queueSize)) :
+            new Virtual(virtualThreads, Math.max(1, threads), Math.max(0, queueSize));
+        report(format(ExecutorReport, executor.kind(), Math.max(1, threads), Math.max(0, queueSize)));
+    }
+
+    static final String VirtualFactory = "newVirtualThreadPerTaskExecutor";
+    /**
+     * @return a new virtual thread per task executor, or null before Java 21
+     */
+    public static ExecutorService virtualThreads() {
+        return nullOrTryQuietly(() -> (ExecutorService) Executors.class.getMethod(VirtualFactory).invoke(null)); }
+
+    @Override protected Object performInvocation(
+            Exchange exchange, Object serviceObject, Method m, Object[] paramArray) throws Exception {
+        if (m.getReturnType() != Response.class) return super.performInvocation(exchange, serviceObject, m, paramArray);
+
+        HttpServletRequest request = (HttpServletRequest) exchange.getInMessage().get(AbstractHTTPDestination.HTTP_REQUEST);
+        AdmissionControl.Admission admission = admissions.admit(admissions.clientOf(request), m);
+        if (!admission.isAdmitted()) return admission.rejection();
+        if (!enabled) {
+            try { return super.performInvocation(exchange, serviceObject, m, paramArray); }
+            finally { admission.release(); }
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> invoke(exchange, serviceObject, m, paramArray), executor)
+                .whenComplete((result, e) -> admission.release());
+        }
+        catch (RejectedExecutionException e) {
+            admission.release();
+            rejections.increment();
+            return AdmissionControl.retryLater(Status.SERVICE_UNAVAILABLE.getStatusCode(), AdmissionControl.RetrySoon);
+        }
+    }
+
+    private Object invoke(Exchange exchange, Object serviceObject, Method m, Object[] paramArray) {
+        try {
+            return super.performInvocation(exchange, serviceObject, m, paramArray);
+        }
+        catch (InvocationTargetException e) {
+            throw new CompletionException(e.getTargetException());
+        }
+        catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    static final String Facade = "facade.calls.";
+    public Map<String, Number> statistics() {
+        HashMap<String, Number> results = new HashMap<>();
+        results.put(Facade + "active", executor.active());
+        results.put(Facade + "queued", executor.queued());
+        results.put(Facade + "rejected", rejections.sum());
+        return results;
+    }
+
+    /**
+     * A bounded executor.
+     */
+    static interface Bounded extends Executor {
+        String kind();
+        int active();
+        int queued();
+    } // Bounded
+
+    static final String FacadeThread = "facade-";
+    static final AtomicInteger ThreadCount = new AtomicInteger();
+
+    /**
+     * Runs calls on a fixed pool of platform threads, with a bounded queue.
+     */
+    static class Pooled extends ThreadPoolExecutor implements Bounded {
+        Pooled(int threads, int queueSize) {
+            super(threads, threads, 60, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                r -> {
+                    Thread result = new Thread(r, FacadeThread + ThreadCount.incrementAndGet());
+                    result.setDaemon(true);
+                    return result;
+                });
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override public String kind() { return "platform"; }
+        @Override public int active() { return getActiveCount(); }
+        @Override public int queued() { return getQueue().size(); }
+    } // Pooled
+
+    /**
+     * Runs each call on its own virtual thread, while limiting the calls running at once.
+     * Waiting calls park their (cheap) virtual threads instead of occupying a queue.
+     */
+    static class Virtual implements Bounded {
+        private final ExecutorService threads;
+        private final Semaphore running;
+        private final int limit;
+        private final AtomicInteger admitted = new AtomicInteger();
+
+        Virtual(ExecutorService threads, int threadCount, int queueSize) {
+            this.threads = threads;
+            this.running = new Semaphore(threadCount);
+            this.limit = threadCount + queueSize;
+        }
+
+        @Override public void execute(Runnable r) {
+            if (admitted.incrementAndGet() > limit) {
+                admitted.decrementAndGet();
+                throw new RejectedExecutionException();
+            }
+
+            threads.execute(() -> {
+                try {
+                    running.acquireUninterruptibly();
+                    try { r.run(); } finally { running.release(); }
+                }
+                finally {
+                    admitted.decrementAndGet();
+                }
+            });
+        }
+
+        @Override public String kind() { return "virtual"; }
+        @Override public int active() { return admitted.get() - queued(); }
+        @Override public int queued() { return running.getQueueLength(); }
+    } // Virtual
+
+} // FacadeInvoker
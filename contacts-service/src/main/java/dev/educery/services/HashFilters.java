@@ -0,0 +1,50 @@
+package dev.educery.services;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+
+import dev.educery.storage.Hashed;
+import dev.educery.storage.HashFilter;
+import dev.educery.storage.StorageMechanism;
+import dev.educery.utils.Logging;
+import static dev.educery.utils.Exceptional.*;
+
+/**
+ * Maintains the hash filters of the stored item types for the contact service.
+ * The filters get built from storage once the service starts, and then rebuilt periodically
+ * to shed the hash keys of removed items.
+ * The filters get built from the primary database, as a trailing replica could miss recently saved hash keys,
+ * and a filter missing a key would wrongly report its item absent.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class HashFilters implements Logging {
+
+    @Autowired StorageMechanism.Registry registry;
+    @Autowired PrimaryScans scans;
+    @Value("${db.filter.hashes.rebuild.minutes:60}") private long rebuildMinutes;
+
+    static final String Rebuilder = "hash-filters";
+    @EventListener(ApplicationReadyEvent.class)
+    public void startRebuilds() { scans.schedule(Rebuilder, rebuildMinutes, () -> rebuild()); }
+
+    static final String RebuildReport = "filtered %d %s hashes in %d msecs";
+    public void rebuild() {
+        registry.mechanisms().forEach(m -> {
+            if (m.getStore() instanceof Hashed.Search) runQuietly(() -> {
+                long start = System.currentTimeMillis();
+                Hashed.Search<?> store = (Hashed.Search<?>) m.getStore();
+                int count = scans.scan(() -> HashFilter.of(m.getModelType()).rebuild(store));
+                String typeName = m.getModelType().getSimpleName();
+                report(format(RebuildReport, count, typeName, System.currentTimeMillis() - start));
+            });
+        });
+    }
+
+} // HashFilters
@@ -0,0 +1,187 @@
+package dev.educery.services;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+
+import dev.educery.crypto.LongHash;
+import static dev.educery.utils.Utils.*;
+import static dev.educery.utils.Logging.Empty;
+import static dev.educery.utils.Logging.isEmpty;
+
+/**
+ * Runs each keyed write of the contact service at most once, so that a client may safely retry a write
+ * (e.g., after a timeout) by resending it with the same Idempotency-Key header.
+ * A retry of a completed write replays its outcome, and a retry of a write still in flight waits (briefly) for it.
+ * A request that reuses a key with a different body gets rejected with 422 (unprocessable entity).
+ * Outcomes expire after a time to live, and get kept in memory only, so each service node dedupes its own retries.
+ * Configured in db.properties, e.g.:
+ * <pre>
+ * service.requests.size=10000
+ * service.requests.ttl.seconds=600
+ * service.requests.wait.seconds=10
+ * </pre>
+ *
+ * <h4>IdempotentWrites Responsibilities:</h4>
+ * <ul>
+ * <li>knows the outcomes of recently completed writes, keyed by endpoint and request key</li>
+ * <li>knows the writes in flight, and makes their duplicates wait for them</li>
+ * <li>rejects a reused request key whose request body differs from the original</li>
+ * <li>rejects a duplicate with 503 (and Retry-After) if its write does not complete in time</li>
+ * <li>reports its statistics</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class IdempotentWrites {
+
+    private final Cache<String, Outcome> completed;
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final long waitSeconds;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+
+    public IdempotentWrites(
+            @Value("${service.requests.size:10000}") long size,
+            @Value("${service.requests.ttl.seconds:600}") long timeToLive,
+            @Value("${service.requests.wait.seconds:10}") long waitSeconds) {
+        this.waitSeconds = Math.max(0, waitSeconds);
+        this.completed = Caffeine.newBuilder()
+            .maximumSize(Math.max(0, size))
+            .expireAfterWrite(Math.max(0, timeToLive), TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * The outcome of a completed write, which may be replayed.
+     */
+    static class Outcome {
+
+        private final long bodyHash;
+        private final int status;
+        private final Object entity;
+
+        private Outcome(long bodyHash, int status, Object entity) {
+            this.bodyHash = bodyHash; this.status = status; this.entity = entity; }
+        static Outcome from(long bodyHash, Response response) {
+            return new Outcome(bodyHash, response.getStatus(), response.hasEntity() ? response.getEntity() : null); }
+
+        boolean isLasting() { return status < Status.INTERNAL_SERVER_ERROR.getStatusCode(); }
+        Response response() { return Response.status(status).entity(entity).build(); }
+
+    } // Outcome
+
+    /**
+     * A write in flight, which its duplicates may await.
+     */
+    static class Pending {
+
+        final long bodyHash;
+        final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+        Pending(long bodyHash) { this.bodyHash = bodyHash; }
+
+    } // Pending
+
+    /**
+     * @param endpoint an endpoint path
+     * @param requestKey an Idempotency-Key supplied by a client, if any
+     * @param requestBody the body of a write request
+     * @param write performs the requested write
+     * @return the outcome of the write, or of its earlier duplicate, or 422 if the key was used with another body
+     */
+    public Response once(String endpoint, String requestKey, String requestBody, Supplier<Response> write) {
+        if (isEmpty(requestKey)) return write.get();
+
+        long bodyHash = LongHash.hash(hasNone(requestBody) ? Empty : requestBody);
+        String key = ResponseCache.key(endpoint, requestKey);
+        Outcome result = completed.getIfPresent(key);
+        if (hasOne(result)) return replayed(result, bodyHash);
+
+        Pending flight = new Pending(bodyHash);
+        Pending first = pending.putIfAbsent(key, flight);
+        if (hasOne(first)) return first.bodyHash == bodyHash ? awaited(first.outcome) : mismatched();
+
+        try {
+            result = completed.getIfPresent(key); // completed since the check above?
+            if (hasOne(result)) {
+                Response response = replayed(result, bodyHash);
+                flight.outcome.complete(Outcome.from(bodyHash, response));
+                return response;
+            }
+
+            writes.increment();
+            Response response = write.get();
+            result = Outcome.from(bodyHash, response);
+            if (result.isLasting()) completed.put(key, result);
+            flight.outcome.complete(result);
+            return response;
+        }
+        catch (RuntimeException e) {
+            flight.outcome.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            pending.remove(key, flight);
+        }
+    }
+
+    private Response replayed(Outcome result, long bodyHash) {
+        if (result.bodyHash != bodyHash) return mismatched();
+        replays.increment();
+        return result.response();
+    }
+
+    static final int Unprocessable = 422;
+    private Response mismatched() {
+        mismatches.increment();
+        return Response.status(Unprocessable).build(); }
+
+    static final String RetryAfter = "1";
+    private Response awaited(CompletableFuture<Outcome> first) {
+        waits.increment();
+        try {
+            return first.get(waitSeconds, TimeUnit.SECONDS).response();
+        }
+        catch (TimeoutException e) {
+            timeouts.increment();
+            return Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RetryAfter).build();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RetryAfter).build();
+        }
+        catch (ExecutionException e) {
+            throw new CompletionException(e.getCause()); // the first write failed
+        }
+    }
+
+    static final String Prefix = "requests.";
+    public Map<String, Number> statistics() {
+        HashMap<String, Number> results = new HashMap<>();
+        results.put(Prefix + "writes", writes.sum());
+        results.put(Prefix + "replays", replays.sum());
+        results.put(Prefix + "waits", waits.sum());
+        results.put(Prefix + "timeouts", timeouts.sum());
+        results.put(Prefix + "mismatches", mismatches.sum());
+        results.put(Prefix + "pending", pending.size());
+        results.put(Prefix + "size", completed.estimatedSize());
+        return results;
+    }
+
+} // IdempotentWrites
@@ -0,0 +1,49 @@
+package dev.educery.services;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.data.repository.CrudRepository;
+
+import dev.educery.storage.ItemCount;
+import dev.educery.storage.StorageMechanism;
+import dev.educery.utils.Logging;
+import static dev.educery.utils.Exceptional.*;
+
+/**
+ * Maintains the item counts of the stored item types for the contact service.
+ * The counts get loaded from storage once the service starts, and then reconciled periodically
+ * to correct any drift, e.g., from cascaded removals or other service nodes.
+ * The counts come from the primary database, as the replicas may trail behind it.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class ItemCounts implements Logging {
+
+    @Autowired StorageMechanism.Registry registry;
+    @Autowired PrimaryScans scans;
+    @Value("${db.count.reconcile.minutes:10}") private long reconcileMinutes;
+
+    static final String Reconciler = "item-counts";
+    @EventListener(ApplicationReadyEvent.class)
+    public void startReconciles() { scans.schedule(Reconciler, reconcileMinutes, () -> reconcile()); }
+
+    static final String ReconcileReport = "counted %d %s items in %d msecs";
+    public void reconcile() {
+        registry.mechanisms().forEach(m -> {
+            if (m.getStore() instanceof CrudRepository) runQuietly(() -> {
+                long start = System.currentTimeMillis();
+                CrudRepository<?, Long> store = (CrudRepository<?, Long>) m.getStore();
+                long count = scans.scan(() -> ItemCount.of(m.getModelType()).reconcile(store));
+                String typeName = m.getModelType().getSimpleName();
+                report(format(ReconcileReport, count, typeName, System.currentTimeMillis() - start));
+            });
+        });
+    }
+
+} // ItemCounts
@@ -0,0 +1,69 @@
+package dev.educery.services;
+
+import java.util.function.Supplier;
+import java.util.concurrent.*;
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs the background scans of the contact service against the primary database, on their own schedules.
+ * Scans that maintain derived state (e.g., hash filters, item counts, the search index) must see every committed write,
+ * and a trailing replica could miss some of them.
+ *
+ * <h4>PrimaryScans Responsibilities:</h4>
+ * <ul>
+ * <li>runs a scan in a primary transaction, and then rolls it back</li>
+ * <li>schedules a named task on its own (daemon) thread, periodically or just once</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class PrimaryScans {
+
+    @Autowired PlatformTransactionManager transactionManager;
+
+    /**
+     * Runs a scan on the primary database.
+     * @param scan a scan of storage
+     * @return the scan result
+     */
+    public <ResultType> ResultType scan(Supplier<ResultType> scan) {
+        TransactionTemplate primary = new TransactionTemplate(transactionManager); // not read-only, so not routed to a replica
+        return primary.execute(status -> {
+            status.setRollbackOnly(); // not a write, so it must not keep reads off the replicas
+            return scan.get();
+        });
+    }
+
+    /**
+     * Schedules a task to run at once, and then periodically.
+     * @param name a thread name
+     * @param minutes a delay between runs, or zero to run the task just once
+     * @param task a task
+     * @return the scheduler that runs the task
+     */
+    public ScheduledExecutorService schedule(String name, long minutes, Runnable task) {
+        ScheduledExecutorService result = scheduler(name);
+        if (minutes < 1) result.execute(task);
+        else result.scheduleWithFixedDelay(task, 0, minutes, TimeUnit.MINUTES);
+        return result;
+    }
+
+    /**
+     * @param name a thread name
+     * @return a new scheduler with a single (daemon) thread
+     */
+    public static ScheduledExecutorService scheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread result = new Thread(r, name);
+            result.setDaemon(true);
+            return result;
+        });
+    }
+
+} // PrimaryScans
@@ -0,0 +1,124 @@
+package dev.educery.services;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.core.EntityTag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+
+import dev.educery.codecs.ModelCodec;
+import static dev.educery.utils.Utils.*;
+import static dev.educery.utils.Logging.Empty;
+
+/**
+ * Caches the (serialized) response bodies of the hot read endpoints of the contact service,
+ * so that cache hits skip both the database and JSON encoding.
+ * Bodies expire after a time to live, and all of them get invalidated once any contact update commits.
+ * Configured in db.properties, e.g.:
+ * <pre>
+ * service.cache.size=1000
+ * service.cache.ttl.seconds=30
+ * </pre>
+ *
+ * <h4>ResponseCache Responsibilities:</h4>
+ * <ul>
+ * <li>knows the cached bodies, keyed by endpoint and normalized parameters</li>
+ * <li>invalidates its bodies after each update</li>
+ * <li>ignores any body read while an update was committed</li>
+ * <li>reports its statistics</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+public class ResponseCache {
+
+    private final Cache<String, Body> bodies;
+    private final AtomicLong generation = new AtomicLong(); // counts invalidations
+
+    public ResponseCache(
+            @Value("${service.cache.size:1000}") long size,
+            @Value("${service.cache.ttl.seconds:30}") long timeToLive) {
+        this.bodies = Caffeine.newBuilder()
+            .maximumSize(Math.max(0, size))
+            .expireAfterWrite(Math.max(0, timeToLive), TimeUnit.SECONDS)
+            .recordStats().build();
+    }
+
+    /**
+     * A serialized response body, with its entity tag.
+     */
+    public static class Body {
+
+        private final byte[] json;
+        public byte[] getJSON() { return this.json; }
+
+        private final EntityTag tag;
+        public EntityTag getTag() { return this.tag; }
+
+        private Body(byte[] json, EntityTag tag) { this.json = json; this.tag = tag; }
+        public static Body from(Object entity, long contentHash) {
+            byte[] json = ModelCodec.from(entity).toJSON().getBytes(StandardCharsets.UTF_8);
+            return new Body(json, new EntityTag(Long.toHexString(contentHash)));
+        }
+
+    } // Body
+
+    static final String Joint = "|";
+    /**
+     * @param endpoint an endpoint path
+     * @param parameters some request parameters
+     * @return a cache key for the given endpoint and (normalized) parameters
+     */
+    public static String key(String endpoint, Object... parameters) {
+        StringBuilder result = new StringBuilder(endpoint);
+        for (Object p : parameters) result.append(Joint).append(hasNone(p) ? Empty : p.toString().trim());
+        return result.toString();
+    }
+
+    /**
+     * @param key a cache key
+     * @param source supplies a body for the key, or null if none should be cached
+     * @return a cached or newly supplied body, or null
+     */
+    public Body fetch(String key, Supplier<Body> source) {
+        Body result = bodies.getIfPresent(key);
+        if (hasOne(result)) return result;
+
+        long start = generation.get();
+        result = source.get();
+        if (hasNone(result)) return null;
+
+        bodies.put(key, result);
+        if (generation.get() != start) bodies.invalidate(key); // an update committed while reading
+        return result;
+    }
+
+    /**
+     * Invalidates all the cached bodies, after an update commits.
+     */
+    public void invalidate() { generation.incrementAndGet(); bodies.invalidateAll(); }
+
+    static final String Prefix = "responses.";
+    public Map<String, Number> statistics() {
+        CacheStats stats = bodies.stats();
+        HashMap<String, Number> results = new HashMap<>();
+        results.put(Prefix + "hits", stats.hitCount());
+        results.put(Prefix + "misses", stats.missCount());
+        results.put(Prefix + "hitRatio", stats.hitRate());
+        results.put(Prefix + "evictions", stats.evictionCount());
+        results.put(Prefix + "invalidations", generation.get());
+        results.put(Prefix + "size", bodies.estimatedSize());
+        return results;
+    }
+
+} // ResponseCache
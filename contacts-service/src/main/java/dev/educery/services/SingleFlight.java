@@ -0,0 +1,105 @@
+package dev.educery.services;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+
+import static dev.educery.utils.Utils.*;
+
+/**
+ * Merges identical concurrent reads of the contact service, so that only the first of them (the leader) queries storage,
+ * and the others wait for its result. Reads get merged only while in flight, and none get merged across an update.
+ * A waiter that outlasts the configured wait runs its own read. Configured in db.properties, e.g.:
+ * <pre>
+ * service.flights.wait.seconds=15
+ * </pre>
+ *
+ * <h4>SingleFlight Responsibilities:</h4>
+ * <ul>
+ * <li>knows the reads in flight, keyed by endpoint and normalized parameters</li>
+ * <li>shares the result (or failure) of each read with its waiters</li>
+ * <li>forgets its reads in flight after each update</li>
+ * <li>reports its statistics</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+@Service
+@SuppressWarnings("unchecked")
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+    private final long waitSeconds;
+
+    private final LongAdder leads = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public SingleFlight(@Value("${service.flights.wait.seconds:15}") long waitSeconds) {
+        this.waitSeconds = Math.max(0, waitSeconds); }
+
+    /**
+     * @param key identifies a read, e.g., a response cache key
+     * @param read reads from storage
+     * @return the result of this read, or of an identical read already in flight
+     */
+    public <ResultType> ResultType join(String key, Supplier<ResultType> read) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = flights.putIfAbsent(key, flight);
+        if (hasOne(leader)) return awaited(leader, read);
+
+        leads.increment();
+        try {
+            ResultType result = read.get();
+            flight.complete(result);
+            return result;
+        }
+        catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private <ResultType> ResultType awaited(CompletableFuture<Object> leader, Supplier<ResultType> read) {
+        merges.increment();
+        try {
+            return (ResultType) leader.get(waitSeconds, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            timeouts.increment();
+            return read.get(); // the leader is slow, so read independently
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        catch (ExecutionException e) {
+            throw new CompletionException(e.getCause()); // the leader failed
+        }
+    }
+
+    /**
+     * Forgets the reads in flight, after an update commits, so later reads query storage anew.
+     */
+    public void invalidate() { flights.clear(); }
+
+    static final String Prefix = "flights.";
+    public Map<String, Number> statistics() {
+        HashMap<String, Number> results = new HashMap<>();
+        results.put(Prefix + "leads", leads.sum());
+        results.put(Prefix + "merges", merges.sum());
+        results.put(Prefix + "timeouts", timeouts.sum());
+        results.put(Prefix + "active", flights.size());
+        return results;
+    }
+
+} // SingleFlight
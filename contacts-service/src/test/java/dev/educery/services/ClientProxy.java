@@ -1,7 +1,9 @@
 package dev.educery.services;
 
 import java.util.*;
+import java.util.function.Function;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response.Status;
 import static org.junit.Assert.*;
 
@@ -31,20 +33,28 @@ public class ClientProxy implements Logging {
     protected String actualStatus(Response r) { return String.format(ActualStatus, r.getStatus()); }
 
     static final int OK = Status.OK.getStatusCode();
+    static final int NOT_MODIFIED = Status.NOT_MODIFIED.getStatusCode();
+    public boolean wasModified() { return r.getStatus() != NOT_MODIFIED; }
     public ItemBrief countContacts() {
         r = contacts().countItems();
         assertTrue(actualStatus(r), r.getStatus() == OK);
         return ItemBrief.fromJSON(readJSON()); }
 
+    public Map<String, Object> getStatistics() {
+        r = contacts().getStatistics();
+        assertTrue(actualStatus(r), r.getStatus() == OK);
+        return ModelCodec.to(Map.class).fromJSON(readJSON()); }
+
     static final int CREATED = Status.CREATED.getStatusCode();
-    public ItemBrief createContact(Contact c) {
-        r = contacts().createItem(c.toJSON());
+    public ItemBrief createContact(Contact c) { return createContact(c, null); }
+    public ItemBrief createContact(Contact c, String requestKey) {
+        r = contacts().createItem(c.toJSON(), requestKey);
         assertTrue(actualStatus(r), r.getStatus() == CREATED);
         return ItemBrief.fromJSON(readJSON()); }
 
     public ItemBrief saveContact(Contact c) {
         if (c.getKey() == 0) return createContact(c);
-        r = contacts().saveItem(c.toJSON());
+        r = contacts().saveItem(c.toJSON(), null);
         assertTrue(actualStatus(r), r.getStatus() == OK);
         return ItemBrief.fromJSON(readJSON()); }
 
@@ -54,7 +64,7 @@ public class ClientProxy implements Logging {
             wrap(ModelCodec.to(String[].class).fromJSON(readJSON())); }
 
     public ItemBrief savePart(ItemPart p) {
-        r = contacts().createPart(p.toJSON());
+        r = contacts().createPart(p.toJSON(), null);
         assertTrue(actualStatus(r), r.getStatus() == CREATED);
         return ItemBrief.fromJSON(readJSON()); }
 
@@ -63,12 +73,39 @@ public class ClientProxy implements Logging {
         return (r.getStatus() == OK) ? Contact.fromJSON(readJSON()) : null; }
 
     public Contact getContact(Long id) {
-        r = contacts().getItem(id);
+        r = contacts().getItem(id, null);
         assertTrue(actualStatus(r), r.getStatus() == OK);
         Contact c = Contact.fromJSON(readJSON());
         assertTrue(hasOne(c));
         return c; }
 
+    static final int BatchSize = IContactService.BatchLimit; // also keeps each request URI within the header limits
+    static <T> List<List<T>> batches(List<T> itemIDs) {
+        ArrayList<List<T>> results = new ArrayList<>();
+        for (int index = 0; index < itemIDs.size(); index += BatchSize) {
+            results.add(itemIDs.subList(index, Math.min(itemIDs.size(), index + BatchSize)));
+        }
+        return results; }
+
+    public EntityTag getContactTag(Long id, EntityTag version) {
+        r = contacts().getItem(id, hasNone(version) ? null : version.toString());
+        assertTrue(actualStatus(r), r.getStatus() == OK || r.getStatus() == NOT_MODIFIED);
+        return r.getEntityTag(); }
+
+    public EntityTag getBriefsTag(EntityTag version) {
+        r = contacts().listBriefs("", 0, "", "", hasNone(version) ? null : version.toString());
+        assertTrue(actualStatus(r), r.getStatus() == OK || r.getStatus() == NOT_MODIFIED);
+        return r.getEntityTag(); }
+
+    public ItemBatch.Contacts getContacts(List<Long> keys) {
+        ItemBatch.Contacts results = new ItemBatch.Contacts();
+        for (List<Long> batch : batches(keys)) {
+            r = contacts().getItems(batch);
+            assertTrue(actualStatus(r), r.getStatus() == OK);
+            results.putAll(ItemBatch.Contacts.fromJSON(readJSON()));
+        }
+        return results; }
+
     public List<Contact> findContact(PhoneNumber p) {
         r = contacts().getItemWithHash(Type.phone, p.formatValue());
         assertTrue(actualStatus(r), r.getStatus() == OK);
@@ -91,20 +128,50 @@ public class ClientProxy implements Logging {
         return results; }
 
     public List<Contact> listContactsLike(String name) {
-        r = contacts().listItems(name, "", ""); // provisional
+        ItemPage.Contacts page = listContactsPage(name, "", "", 0, "");
+        assertFalse(page.getItems().isEmpty());
+        return page.getItems(); }
+
+    public ItemPage.Contacts listContactsPage(String name, String city, String zip, int limit, String cursor) {
+        r = contacts().listItems(name, city, zip, limit, cursor, "", null);
         assertTrue(actualStatus(r), r.getStatus() == OK);
-        List<Contact> results = Contact.listFromJSON(readJSON());
-        assertFalse(results.isEmpty());
-        return results; }
+        return ItemPage.Contacts.fromJSON(readJSON()); }
 
-    public List<ItemBrief> listAllContactBriefs() {
-        r = contacts().listBriefs("");
+    public ItemPage.Contacts searchContacts(String text) {
+        r = contacts().searchItems(text, 0, "");
         assertTrue(actualStatus(r), r.getStatus() == OK);
-        return ItemBrief.listFromJSON(readJSON()); }
+        return ItemPage.Contacts.fromJSON(readJSON()); }
+
+    public List<ItemBrief> listAllContactBriefs() {
+        List<ItemBrief> results = new ArrayList();
+        String cursor = "";
+        do { // collect every page
+            r = contacts().listBriefs("", 0, cursor, "", null);
+            assertTrue(actualStatus(r), r.getStatus() == OK);
+            ItemPage.Briefs page = ItemPage.Briefs.fromJSON(readJSON());
+            results.addAll(page.getItems());
+            cursor = page.getNext();
+        } while (!cursor.isEmpty());
+        return results; }
 
     static final int ACCEPTED = Status.ACCEPTED.getStatusCode();
     public boolean deleteContact(Long key) {
         r = contacts().deleteItem(key);
         return (r.getStatus() == OK || r.getStatus() == ACCEPTED); }
 
+    public ItemBatch.Statuses deleteContacts(List<Long> keys) {
+        return deleteBatches(keys, (batch) -> contacts().deleteItems(batch)); }
+
+    public ItemBatch.Statuses deleteContacts(Type idType, List<String> itemIDs) {
+        return deleteBatches(itemIDs, (batch) -> contacts().deleteItemsWithHash(idType, batch)); }
+
+    private <T> ItemBatch.Statuses deleteBatches(List<T> itemIDs, Function<List<T>, Response> deletion) {
+        ItemBatch.Statuses results = new ItemBatch.Statuses();
+        for (List<T> batch : batches(itemIDs)) {
+            r = deletion.apply(batch);
+            assertTrue(actualStatus(r), r.getStatus() == OK);
+            results.putAll(ItemBatch.Statuses.fromJSON(readJSON()));
+        }
+        return results; }
+
 } // ClientProxy
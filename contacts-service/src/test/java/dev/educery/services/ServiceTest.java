@@ -1,11 +1,16 @@
 package dev.educery.services;
 
 import java.util.*;
+import java.lang.reflect.Method;
+import javax.ws.rs.core.EntityTag;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
 import org.junit.*;
 import static org.junit.Assert.*;
 
 import dev.educery.domain.*;
 import dev.educery.domain.Contact.Kind;
+import dev.educery.facets.IContactService;
 import static dev.educery.utils.Utils.*;
 
 /**
@@ -32,11 +37,13 @@ public class ServiceTest extends TestBase {
         p = ItemPart.contact(testName).with(Kind.HOME, createSamplePhone());
         ItemBrief pb = clientProxy().savePart(p);
         assertTrue(pb.getType().contains(TestPhone));
+        assertTrue(pb.getKey() > 0); // from the saved phone, without a re-read
 
         // add home address to contact from part
         p = ItemPart.contact(testName).with(Kind.HOME, createSampleAddress("4321 Main St"));
         pb = clientProxy().savePart(p);
         assertTrue(pb.getType().contains("Anytown"));
+        assertTrue(pb.getKey() > 0);
 
         // fetch contact and confirm home phone and address
         Contact c = clientProxy().getContact(cb.getKey());
@@ -49,9 +56,13 @@ public class ServiceTest extends TestBase {
         ItemBrief b = clientProxy().countContacts();
         if (b.getKey() > 0) deleteSamples();
 
-        // create contact directly
+        // create contact directly, then retry its request, which replays its first outcome
         Contact c = createSampleContact();
-        b = clientProxy().saveContact(c);
+        String requestKey = UUID.randomUUID().toString();
+        b = clientProxy().createContact(c, requestKey);
+        assertTrue(clientProxy().createContact(c, requestKey).getKey() == b.getKey());
+        Contact other = Contact.named("Another Person");
+        assertTrue(clientProxy().contacts().createItem(other.toJSON(), requestKey).getStatus() == 422);
         c = clientProxy().getContact(b.getKey());
         c.describe();
 
@@ -80,6 +91,16 @@ public class ServiceTest extends TestBase {
         assertTrue(c.getAddress(Kind.HOME).getCity().equals("Sometown"));
         c.describe();
 
+        // revalidate the contact with its entity tag, until it changes
+        EntityTag tag = clientProxy().getContactTag(b.getKey(), null);
+        assertTrue(clientProxy().wasModified());
+        assertTrue(clientProxy().getContactTag(b.getKey(), tag).equals(tag));
+        assertFalse(clientProxy().wasModified());
+        c.withPhone(Kind.WORK, createSimplePhone("415-888-7766"));
+        b = clientProxy().saveContact(c);
+        assertFalse(clientProxy().getContactTag(b.getKey(), tag).equals(tag));
+        assertTrue(clientProxy().wasModified());
+
         // add another contact
         String testName = "George Bungleman";
         Contact simple = createSimpleContact(testName, "415-889-9988", "4321 Main St");
@@ -92,15 +113,95 @@ public class ServiceTest extends TestBase {
         assertFalse(results.isEmpty());
         report("found " + results.size() + " matches");
 
+        // page through contacts one at a time
+        ItemPage.Contacts page = clientProxy().listContactsPage("George", "", "", 1, "");
+        assertTrue(page.count() == 1);
+        assertTrue(page.hasNext());
+        page = clientProxy().listContactsPage("George", "", "", 1, page.getNext());
+        assertTrue(page.count() == 1);
+        assertTrue(clientProxy().contacts().listItems("George", "", "", 1, "bogus", "", null).getStatus() == 400);
+        assertTrue(clientProxy().contacts().searchItems("george", 1, "-1").getStatus() == 400);
+
+        // filter contacts by city
+        page = clientProxy().listContactsPage("George", "Sometown", "", 0, "");
+        assertTrue(page.count() == 1);
+        assertTrue(page.getItems().get(0).getName().equals("George Jungleman"));
+
+        // search contacts by name, city, and phone
+        page = clientProxy().searchContacts("sometown");
+        assertTrue(page.count() == 1);
+        assertTrue(page.getItems().get(0).getName().equals("George Jungleman"));
+        page = clientProxy().searchContacts("george 889-9988");
+        assertTrue(page.count() == 1);
+        assertTrue(page.getItems().get(0).getName().equals(testName));
+        assertTrue(clientProxy().searchContacts("bung").count() == 1);
+
         // check duplicate
         Contact dupe = createSimpleContact(testName, "415-889-9988", "888 Main St");
         List<String> messages = clientProxy().checkContact(dupe);
         report(messages.toString());
 
+        // read the first contact twice, the second time from the response cache
+        assertTrue(clientProxy().findFirst().getName().equals(clientProxy().findFirst().getName()));
+
+        // confirm the duplicate checks consulted the key caches
+        Map<String, Object> stats = clientProxy().getStatistics();
+        assertTrue(((Number) stats.get("responses.hits")).longValue() > 0);
+        assertTrue(((Number) stats.get("requests.replays")).longValue() > 0);
+        assertTrue(((Number) stats.get("flights.leads")).longValue() > 0); // led the cache misses
+        assertTrue(stats.containsKey("PhoneNumber.keys.hits"));
+        assertTrue(stats.containsKey("contacts.hits"));
+        assertTrue(stats.containsKey("Contact.counts.value"));
+        assertTrue(((Number) stats.get("admission.writes.admitted")).longValue() > 0);
+        assertTrue(((Number) stats.get("admission.scans.admitted")).longValue() > 0);
+        assertTrue(((Number) stats.get("admission.scans.throttled")).longValue() == 0);
+        report(stats.toString());
+
         // fetch a list of contact briefs
         List<ItemBrief> bs = clientProxy().listAllContactBriefs();
         assertFalse(bs.isEmpty());
         report("found " + bs.size() + " briefs");
+
+        // revalidate the first page of briefs
+        EntityTag briefsTag = clientProxy().getBriefsTag(null);
+        assertTrue(clientProxy().getBriefsTag(briefsTag).equals(briefsTag));
+        assertFalse(clientProxy().wasModified());
+
+        // fetch the listed contacts in a batch, which omits missing ones
+        List<Long> keys = map(bs, brief -> brief.getKey());
+        keys.add(0L);
+        ItemBatch.Contacts batch = clientProxy().getContacts(keys);
+        assertTrue(batch.count() == bs.size());
+        assertTrue(batch.get(b.getKey()).getName().equals(testName));
+
+        // refuse a batch beyond the limit
+        List<Long> tooMany = new ArrayList<>(Collections.nCopies(IContactService.BatchLimit + 1, 0L));
+        assertTrue(clientProxy().contacts().getItems(tooMany).getStatus() == 413);
+
+        // delete contacts in a batch by name
+        ItemBatch.Statuses statuses = clientProxy().deleteContacts(Contact.Type.name, wrap(testName, "Nobody Here"));
+        assertTrue(statuses.get(testName) == 200);
+        assertTrue(statuses.get("Nobody Here") == 202);
+        assertFalse(clientProxy().getContacts(wrap(b.getKey())).has(b.getKey()));
+    }
+
+    @Test public void shedCallsKeepTheirTokens() throws Exception {
+        Map<String, Object> limits = new HashMap<>();
+        limits.put("service.admission.scans.rate", 1);
+        limits.put("service.admission.scans.burst", 1);
+        limits.put("service.admission.scans.concurrency", 1);
+        StandardEnvironment settings = new StandardEnvironment();
+        settings.getPropertySources().addFirst(new MapPropertySource("limits", limits));
+        AdmissionControl admissions = new AdmissionControl(settings);
+
+        Method scan = IContactService.class.getMethod(
+            "searchItems", String.class, int.class, String.class);
+        AdmissionControl.Admission first = admissions.admit("first", scan);
+        assertTrue(first.isAdmitted());
+        assertTrue(admissions.admit("second", scan).rejection().getStatus() == 503);
+
+        first.release();
+        assertTrue(admissions.admit("second", scan).isAdmitted()); // its token survived being shed
     }
 
     /**
@@ -1,8 +1,11 @@
 package dev.educery.storage;
 
+import java.util.stream.Stream;
 import dev.educery.domain.MailAddress;
 import dev.educery.storage.Hashed.Search;
+import javax.persistence.QueryHint;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
@@ -20,7 +23,12 @@ public interface AddressStorage
     MailAddress findKey(@Param("key") Long key);
 
     @Override
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
     @Query("SELECT m FROM MailAddress m WHERE m.hashKey = :hashKey")
     MailAddress findHash(@Param("hashKey") Long key);
 
+    @Override
+    @Query("SELECT m.hashKey FROM MailAddress m")
+    Stream<Long> streamHashKeys();
+
 } // AddressStorage
@@ -1,10 +1,13 @@
 package dev.educery.storage;
 
 import java.util.*;
+import java.util.stream.Stream;
 import dev.educery.domain.Contact;
 import dev.educery.domain.Contact.IContactSearch;
 import dev.educery.storage.Hashed.Search;
+import javax.persistence.QueryHint;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
@@ -23,23 +26,51 @@ public interface ContactStorage
     Contact findKey(@Param("key") Long key);
 
     @Override
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
     @Query("SELECT c FROM Contact c WHERE c.hashKey = :hashKey")
     Contact findHash(@Param("hashKey") Long key);
 
     @Override
-    @Query("SELECT c FROM Contact c WHERE c.name like :sample order by c.name")
+    @Query("SELECT c.hashKey FROM Contact c")
+    Stream<Long> streamHashKeys();
+
+    @Override
+    @Query("SELECT c FROM Contact c WHERE c.searchName like :sample order by c.searchName")
     List<Contact> findLike(@Param("sample") String sample);
 
     @Override
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
     @Query("SELECT c FROM Contact c join c.emails em WHERE em.hashKey = :emailKey")
     List<Contact> findEmail(@Param("emailKey") Long emailKey);
 
     @Override
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
     @Query("SELECT c FROM Contact c join c.phones ph WHERE ph.hashKey = :phoneKey")
     List<Contact> findPhone(@Param("phoneKey") Long phoneKey);
 
     @Override
-    @Query(value = "SELECT * FROM contact c ORDER BY c.name LIMIT 1", nativeQuery = true)
-    Contact findFirst();
+    default Contact findFirst() { return findFirstByOrderByNameAscKeyAsc(); }
+
+    /**
+     * @return the first contact by name (limited to one row, even among duplicate names)
+     */
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
+    Contact findFirstByOrderByNameAscKeyAsc();
+
+    @Override
+    @Query("SELECT c FROM Contact c WHERE c.key IN :keys")
+    List<Contact> findKeys(@Param("keys") Collection<Long> keys);
+
+    @Override
+    @Query("SELECT c FROM Contact c WHERE c.hashKey IN :hashKeys order by c.key")
+    List<Contact> findHashes(@Param("hashKeys") Collection<Long> hashKeys);
+
+    @Override
+    @Query("SELECT DISTINCT c FROM Contact c join c.emails em WHERE em.hashKey IN :emailKeys order by c.key")
+    List<Contact> findEmails(@Param("emailKeys") Collection<Long> emailKeys);
+
+    @Override
+    @Query("SELECT DISTINCT c FROM Contact c join c.phones ph WHERE ph.hashKey IN :phoneKeys order by c.key")
+    List<Contact> findPhones(@Param("phoneKeys") Collection<Long> phoneKeys);
 
 } // ContactStorage
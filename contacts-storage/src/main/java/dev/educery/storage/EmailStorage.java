@@ -1,8 +1,11 @@
 package dev.educery.storage;
 
+import java.util.stream.Stream;
 import dev.educery.domain.EmailAddress;
 import dev.educery.storage.Hashed.Search;
+import javax.persistence.QueryHint;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
@@ -20,7 +23,12 @@ public interface EmailStorage
     EmailAddress findKey(@Param("key") Long key);
 
     @Override
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
     @Query("SELECT e FROM EmailAddress e WHERE e.hashKey = :hashKey")
     EmailAddress findHash(@Param("hashKey") Long key);
 
+    @Override
+    @Query("SELECT e.hashKey FROM EmailAddress e")
+    Stream<Long> streamHashKeys();
+
 } // EmailStorage
@@ -80,12 +80,13 @@ public class PersistenceContext {
     @Bean public StorageMechanism<MailAddress, AddressStorage> addressStorageMechanism(AddressStorage store) {
         return new StorageMechanism(store, AddressStorage.class, MailAddress.class); }
 
-    @Bean public StorageMechanism.Registry storageRegistry(
+    @Bean public StorageMechanism.Registry storageRegistry(EntityManagerFactory emf,
             StorageMechanism<Contact, ContactStorage> contactStorage,
             StorageMechanism<PhoneNumber, PhoneStorage> phoneStorage,
             StorageMechanism<EmailAddress, EmailStorage> emailStorage,
             StorageMechanism<MailAddress, AddressStorage> addressStorage) {
         return StorageMechanism.Registry.with(
-            phoneStorage, emailStorage, addressStorage, contactStorage); }
+            phoneStorage, emailStorage, addressStorage, contactStorage)
+            .withManager(SharedEntityManagerCreator.createSharedEntityManager(emf)); }
 
 } // PersistenceContext
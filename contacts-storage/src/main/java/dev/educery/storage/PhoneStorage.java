@@ -1,7 +1,10 @@
 package dev.educery.storage;
 
+import java.util.stream.Stream;
 import dev.educery.domain.PhoneNumber;
+import javax.persistence.QueryHint;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
@@ -19,7 +22,12 @@ public interface PhoneStorage
     PhoneNumber findKey(@Param("key") Long key);
 
     @Override
+    @QueryHints(@QueryHint(name = Cacheable, value = "true"))
     @Query("SELECT p FROM PhoneNumber p WHERE p.hashKey = :hashKey")
     PhoneNumber findHash(@Param("hashKey") Long key);
 
+    @Override
+    @Query("SELECT p.hashKey FROM PhoneNumber p")
+    Stream<Long> streamHashKeys();
+
 } // PhoneStorage
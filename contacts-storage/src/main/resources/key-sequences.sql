@@ -0,0 +1,11 @@
+-- migrates an existing PostgreSQL database from the shared hibernate_sequence to the pooled sequences per table,
+-- keeping the current key values: each sequence resumes past the largest key in its table.
+-- the increments must match db.keys.allocation.size.
+CREATE SEQUENCE IF NOT EXISTS contact_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS phone_number_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS email_address_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS mail_address_seq INCREMENT BY 50;
+SELECT setval('contact_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM contact), false);
+SELECT setval('phone_number_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM phone_number), false);
+SELECT setval('email_address_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM email_address), false);
+SELECT setval('mail_address_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM mail_address), false);
@@ -0,0 +1,6 @@
+-- migrates an existing PostgreSQL database to the search_name column of the contact table,
+-- filling it with the lower case contact names before it becomes required.
+ALTER TABLE contact ADD COLUMN IF NOT EXISTS search_name VARCHAR(100);
+UPDATE contact SET search_name = lower(name) WHERE search_name IS NULL;
+ALTER TABLE contact ALTER COLUMN search_name SET NOT NULL;
+CREATE INDEX IF NOT EXISTS ix_name_search ON contact (search_name, id);
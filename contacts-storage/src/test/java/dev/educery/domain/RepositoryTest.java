@@ -1,6 +1,7 @@
 package dev.educery.domain;
 
 import java.util.*;
+import java.util.stream.Stream;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import static org.junit.Assert.*;
@@ -11,8 +12,12 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import dev.educery.data.RegionCaches;
 import dev.educery.storage.*;
 import dev.educery.domain.Contact.Kind;
+import dev.educery.domain.Contact.Type;
 import static dev.educery.utils.Utils.*;
 import dev.educery.utils.Logging;
 
@@ -33,7 +38,18 @@ public class RepositoryTest implements Logging {
     @Autowired StorageMechanism.Registry registry;
     public PhoneStorage phones() { return StorageMechanism.get(PhoneNumber.class); }
 
-    @Test public void registeredStores() { report("registered stores count = " + registry.size()); }
+    @Test public void registeredStores() {
+        report("registered stores count = " + registry.size());
+        assertTrue(StorageMechanism.get(Contact.class) == StorageMechanism.getStorage(ContactStorage.class));
+
+        Contact derived = new Contact() { }; // resolves like a proxy class
+        assertTrue(StorageMechanism.get(derived.getClass()) == StorageMechanism.get(Contact.class));
+
+        StorageMechanism.Registry added = new StorageMechanism.Registry();
+        assertTrue(hasNone(added.getModelStorage(PhoneNumber.class)));
+        added.register(new StorageMechanism(phones(), PhoneStorage.class, PhoneNumber.class));
+        assertTrue(added.getModelStorage(PhoneNumber.class) == phones());
+    }
 
     @Test public void invalidAddress() {
         MailAddress a = MailAddress.with("1234 Main St", "Anytown", "CAA", "94005");
@@ -237,6 +253,318 @@ public class RepositoryTest implements Logging {
         assertTrue(x == null);
     }
 
+    static final String[] PagedNames = { "Alice Adams", "Alice Baker", "Alice Carter", "Alice Dawson", "Alice Evans", };
+    @Transactional
+    @Test public void pagedContacts() {
+        wrap(PagedNames).forEach(n -> Contact.named(n).saveItem());
+        Contact.named("Alice Cityfolk")
+            .withAddress(Kind.HOME, MailAddress.with("1234 Main St", "Sometown", "CA", "94005"))
+            .saveItem();
+
+        ItemPage.Contacts page = ContactQuery.named("Alice").withLimit(2).page();
+        assertTrue(page.count() == 2);
+        assertTrue(page.hasNext());
+        assertTrue(page.getItems().get(0).getName().equals("Alice Adams"));
+
+        ItemPage.Contacts next = ContactQuery.named("Alice").withLimit(2).withCursor(page.getNext()).page();
+        assertTrue(next.count() == 2);
+        assertTrue(next.getItems().get(0).getName().equals("Alice Carter"));
+        assertFalse(ItemPage.Cursor.isValid("bogus"));
+        assertTrue(ItemPage.Cursor.isValid(page.getNext()));
+
+        ItemPage.Contacts last = ContactQuery.named("Alice").withLimit(2).withSort(ContactQuery.Descending).page();
+        assertTrue(last.getItems().get(0).getName().equals("Alice Evans"));
+
+        ItemPage.Contacts local = ContactQuery.named("Alice").withCity("sometown").page();
+        assertTrue(local.count() == 1);
+        assertFalse(local.hasNext());
+        assertTrue(local.getItems().get(0).getName().equals("Alice Cityfolk"));
+        assertTrue(ContactQuery.named("Alice").withZip("94005").page().count() == 1);
+
+        ItemPage.Contacts prefixed = ContactQuery.named("alice c*").page();
+        assertTrue(prefixed.count() == 2);
+        assertTrue(prefixed.getItems().get(0).getName().equals("Alice Carter"));
+        assertTrue(ContactQuery.named("carter*").page().count() == 0);
+        assertTrue(ContactQuery.named("CARTER").page().count() == 1);
+
+        List<Contact> cs = ContactQuery.named("Alice").page().getItems();
+        assertTrue(cs.size() == PagedNames.length + 1);
+        cs.forEach(c -> c.removeItem());
+    }
+
+    @Transactional
+    @Test public void builtQueries() {
+        wrap(PagedNames).forEach(n -> Contact.named(n).saveItem());
+        String text = "SELECT c.name FROM Contact c WHERE c.searchName like :sample ORDER BY c.searchName";
+        QueryBuilder builder = QueryBuilder.withQueryText(text)
+            .withCountText("SELECT COUNT(c) FROM Contact c WHERE c.searchName like :sample")
+            .withValue("sample", "alice%").withFirstResult(1).withMaxResults(2).withFetchSize(2);
+
+        assertTrue(builder.hasTextCount());
+        assertFalse(builder.hasNamedCount());
+        EntityManager em = StorageMechanism.getManager();
+        List<String> names = builder.buildQuery(em, String.class).getResultList();
+        assertTrue(names.size() == 2);
+        assertTrue(names.get(0).equals("Alice Baker"));
+
+        long count = (Long) builder.buildCount(em).getSingleResult();
+        assertTrue(count == PagedNames.length);
+        assertTrue(QueryBuilder.registered(em, text).equals(QueryBuilder.registered(em, text)));
+        String unregistered = text;
+        for (int index = 0; index <= QueryBuilder.RegistryLimit && hasOne(QueryBuilder.registered(em, unregistered)); index++) {
+            unregistered = "SELECT COUNT(c) FROM Contact c WHERE c.key > " + index; // fills the registry
+        }
+        assertTrue(hasNone(QueryBuilder.registered(em, unregistered))); // the registry stays bounded
+        assertTrue(QueryBuilder.withQueryText(unregistered).buildQuery(em).getSingleResult() != null);
+
+        QueryBuilder scan = QueryBuilder.withQueryText("SELECT c FROM Contact c WHERE c.searchName like :sample")
+            .withValue("sample", "alice%").withFetchSize(2);
+        try (Stream<Contact> cs = scan.stream(em)) { assertTrue(cs.count() == PagedNames.length); }
+
+        List<Integer> chunks = new ArrayList<>();
+        assertTrue(scan.forEachChunk(em, 2, (List<Contact> chunk) -> chunks.add(chunk.size())) == PagedNames.length);
+        assertTrue(chunks.equals(Arrays.asList(2, 2, 1)));
+        Contact held = ContactQuery.named("Alice").page().getItems().get(0);
+        scan.forEachChunk(em, 2, (List<Contact> chunk) -> { });
+        assertTrue(em.contains(held)); // scans leave the caller's persistence context intact
+        ContactQuery.named("Alice").page().getItems().forEach(c -> c.removeItem());
+    }
+
+    @Transactional
+    @Test public void indexedContacts() {
+        Contact c = Contact.named("Harriet Indexwell")
+            .with(Kind.HOME, MailAddress.with("1234 Main St", "Sometown", "CA", "94005"))
+            .with(Kind.WORK, EmailAddress.from("harriet@indexwell.com"))
+            .with(Kind.MOBILE, PhoneNumber.from("415-777-6655"))
+            .saveItem();
+
+        Contact d = Contact.named("Sometown Harriet").saveItem();
+        ContactIndex index = new ContactIndex();
+        assertTrue(index.rebuild() >= 2);
+
+        ItemPage.Contacts page = index.page("harriet sometown", 0, "");
+        assertTrue(page.count() == 2);
+        assertTrue(page.getItems().get(0).getKey() == d.getKey()); // name matches rank first
+
+        assertTrue(index.page("4157776655", 0, "").getItems().get(0).getKey() == c.getKey());
+        assertTrue(index.page("index", 0, "").count() == 1);
+        assertTrue(index.page("harriet", 1, "").hasNext());
+
+        index.exclude(c.getKey());
+        assertTrue(index.page("indexwell", 0, "").count() == 0);
+
+        assertTrue(c.removeItem());
+        assertTrue(d.removeItem());
+    }
+
+    @Test public void prefixedTerms() {
+        TextIndex index = new TextIndex();
+        for (long key = 1; key <= 100; key++) { // more za.. terms than a prefix may expand into
+            Map<String, Float> terms = new HashMap<>();
+            terms.put(String.format("za%03d", key), 1f);
+            index.put(key, terms);
+        }
+
+        Map<String, Float> zebra = new HashMap<>();
+        zebra.put("alpha", 1f);
+        zebra.put("zebra", 1f);
+        index.put(200, zebra);
+        assertTrue(index.search(wrap("alpha", "z")).get(0).getKey() == 200); // beyond the alphabetical first 64
+
+        Map<String, Float> ze = new HashMap<>();
+        ze.put("ze", 1f);
+        index.put(300, ze);
+        assertTrue(index.search(wrap("z")).stream().anyMatch(hit -> hit.getKey() == 300)); // closest terms first
+    }
+
+    @Test public void cachedKeys() {
+        KeyCache cache = KeyCache.of(EmailAddress.class);
+        EmailAddress sample = EmailAddress.from("cached@keys.com");
+        assertTrue(hasNone(sample.findWithHash())); // remembered as absent
+        assertTrue(cache.find(sample.hashKey()) == KeyCache.Absent);
+
+        EmailAddress e = EmailAddress.from("cached@keys.com").saveItem();
+        assertTrue(cache.find(e.hashKey()) == e.getKey()); // saving replaced the absent entry
+
+        EmailAddress f = EmailAddress.from("cached@keys.com").findWithHash();
+        assertTrue(hasOne(f) && f.getKey() == e.getKey());
+
+        assertTrue(f.removeItem());
+        assertTrue(hasNone(cache.find(e.hashKey())));
+        assertTrue(hasNone(EmailAddress.from("cached@keys.com").findWithHash()));
+
+        KeyCache small = new KeyCache(2, 0);
+        small.remember(1, 10); small.remember(2, 20); small.remember(3, 30);
+        assertTrue(small.size() == 2); // evicts beyond its capacity
+        assertTrue(small.statistics("small").get("small.evictions").longValue() == 1);
+        small.rememberAbsent(4); // not remembered without an absent window
+        assertTrue(hasNone(small.find(4)));
+
+        KeyCache racing = new KeyCache(2, 60000);
+        racing.remember(5, 50); // saved while a search for the same hash missed
+        racing.rememberAbsent(5);
+        assertTrue(racing.find(5) == 50); // the known key survives
+        report(cache.statistics("EmailAddress.keys").toString());
+    }
+
+    @Transactional
+    @Test public void filteredHashes() {
+        PhoneNumber p = PhoneNumber.from("415-333-2211").saveItem();
+        HashFilter filter = HashFilter.of(PhoneNumber.class);
+        assertTrue(filter.rebuild(phones()) == PhoneNumber.count());
+        assertTrue(filter.mightContain(p.hashKey()));
+
+        PhoneNumber absent = PhoneNumber.from("415-333-2299");
+        assertFalse(filter.mightContain(absent.hashKey()));
+        assertTrue(hasNone(absent.findWithHash())); // skipped its query
+
+        PhoneNumber q = absent.saveItem();
+        assertTrue(filter.mightContain(q.hashKey())); // saves get added
+        assertTrue(hasOne(PhoneNumber.from("415-333-2299").findWithHash()));
+
+        assertTrue(p.removeItem());
+        assertTrue(q.removeItem());
+        assertTrue(filter.rebuild(phones()) == PhoneNumber.count()); // sheds the removed hashes
+        report(filter.statistics("PhoneNumber.hashes").toString());
+    }
+
+    @Transactional
+    @Test public void countedItems() {
+        ItemCount counter = ItemCount.of(PhoneNumber.class);
+        int before = PhoneNumber.count();
+        PhoneNumber p = PhoneNumber.from("415-444-3322").saveItem();
+        assertTrue(PhoneNumber.count() == before + 1); // includes pending inserts
+        assertTrue(counter.reconcile(phones()) == PhoneNumber.count());
+
+        assertTrue(p.removeItem());
+        assertTrue(PhoneNumber.count() == before);
+        report(counter.statistics("PhoneNumber.counts").toString());
+    }
+
+    @Transactional
+    @Test public void trackedChanges() {
+        Contact c = Contact.named("Tracy Tracker")
+            .with(Kind.HOME, PhoneNumber.from("415-888-1001"))
+            .with(Kind.WORK, EmailAddress.from("tracy@tracker.com"))
+            .saveItem();
+
+        assertFalse(c.hasChanges());
+        assertFalse(c.getPhone(Kind.HOME).wasChanged());
+        assertTrue(c.saveItem() == c); // skips an unchanged save
+
+        PhoneNumber mobile = PhoneNumber.from("415-888-1002");
+        assertTrue(mobile.wasChanged());
+        assertTrue(c.withPhone(Kind.MOBILE, mobile).hasChanges());
+        c = c.saveItem();
+        assertFalse(c.hasChanges());
+        assertTrue(c.getPhone(Kind.MOBILE).wasSaved());
+
+        Contact decoded = Contact.fromJSON(c.toJSON()).withPhone(Kind.MOBILE, PhoneNumber.from("415-888-1003"));
+        decoded.adoptUnchanged(Contact.findKey(c.getKey()));
+        assertFalse(decoded.getPhone(Kind.HOME).wasChanged()); // adopted, so its save gets skipped
+        assertTrue(decoded.getPhone(Kind.MOBILE).wasChanged());
+        c = decoded.saveItem();
+        assertTrue(Contact.findKey(c.getKey()).getPhone(Kind.MOBILE).formatValue().equals("415-888-1003"));
+
+        assertTrue(c.removeEmail(Kind.WORK).hasChanges()); // logged removals count as changes
+        c = c.saveItem();
+        assertFalse(c.hasChanges());
+        assertFalse(Contact.findKey(c.getKey()).hasEmail(Kind.WORK));
+        assertTrue(c.removeItem());
+    }
+
+    @Transactional
+    @Test public void checkedSaves() {
+        Contact c = Contact.named("Chet Checker")
+            .with(Kind.HOME, PhoneNumber.from("415-666-1001"))
+            .with(Kind.WORK, PhoneNumber.from("415-666-1001"))
+            .with(Kind.WORK, EmailAddress.from("chet@checker.com"));
+
+        assertTrue(Contact.checkParts(c).isEmpty());
+        assertTrue(c.getPhone(Kind.HOME).wasAbsent());
+        assertTrue(c.getEmail(Kind.WORK).wasAbsent());
+
+        KeyCache cache = KeyCache.of(EmailAddress.class);
+        long lookups = lookups(cache);
+        c = c.saveItem(); // reuses the searches from its check
+        assertTrue(lookups(cache) == lookups + 1); // only wasAbsent consulted the cache
+        assertTrue(c.getPhone(Kind.HOME).getKey() == c.getPhone(Kind.WORK).getKey()); // still no duplicates
+        assertFalse(Contact.checkParts(Contact.named("Chet Checker")).isEmpty());
+        assertTrue(c.removeItem());
+    }
+
+    private static long lookups(KeyCache cache) {
+        Map<String, Number> stats = cache.statistics("keys");
+        return stats.get("keys.hits").longValue() +
+            stats.get("keys.absentHits").longValue() + stats.get("keys.misses").longValue();
+    }
+
+    @Transactional
+    @Test public void firstOfDuplicates() {
+        Contact.storage().save(Contact.named("Aaron Aardvark")); // bypasses the duplicate checks
+        Contact.storage().save(Contact.named("Aaron Aardvark"));
+        assertTrue(Contact.findFirst().getName().equals("Aaron Aardvark"));
+    }
+
+    @Transactional
+    @Test public void batchedLookups() {
+        Contact a = Contact.named("Betty Batcher")
+            .with(Kind.HOME, PhoneNumber.from("415-777-1001"))
+            .with(Kind.WORK, EmailAddress.from("betty@batcher.com"))
+            .saveItem();
+        Contact b = Contact.named("Barry Batcher")
+            .with(Kind.HOME, PhoneNumber.from("415-777-1002"))
+            .saveItem();
+
+        Map<Long, Contact> found = Contact.findKeys(wrap(b.getKey(), 0L, a.getKey()));
+        assertTrue(found.size() == 2); // omits missing contacts
+        assertTrue(found.keySet().iterator().next() == b.getKey()); // in the order requested
+
+        Map<String, Contact> named = Contact.findWithHashes(Type.name, wrap("Betty Batcher", "Nobody Here"));
+        assertTrue(named.size() == 1);
+        assertTrue(named.get("Betty Batcher").getKey() == a.getKey());
+
+        Map<String, Contact> phoned = Contact.findWithHashes(Type.phone, wrap("415-777-1001", "415-777-1002"));
+        assertTrue(phoned.get("415-777-1001").getKey() == a.getKey());
+        assertTrue(phoned.get("415-777-1002").getKey() == b.getKey());
+        assertTrue(Contact.findWithHashes(Type.email, wrap("betty@batcher.com")).size() == 1);
+        assertTrue(Contact.findKeys(new ArrayList<>()).isEmpty());
+
+        assertTrue(a.removeItem());
+        assertTrue(b.removeItem());
+    }
+
+    @Transactional
+    @Test public void pooledKeys() {
+        PhoneNumber p = PhoneNumber.from("415-555-1001").saveItem();
+        PhoneNumber q = PhoneNumber.from("415-555-1002").saveItem();
+        assertTrue(q.getKey() == p.getKey() + 1); // allocated from the same block
+
+        EntityManager em = entityManagerFactory.createEntityManager();
+        Object increment = em.createNativeQuery("SELECT INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES"
+            + " WHERE UPPER(SEQUENCE_NAME) = 'PHONE_NUMBER_SEQ'").getSingleResult();
+        assertTrue(Long.parseLong(increment.toString()) == 50);
+        em.close();
+
+        assertTrue(p.removeItem());
+        assertTrue(q.removeItem());
+    }
+
+    @Autowired EntityManagerFactory entityManagerFactory;
+    @Test public void cachedEntities() {
+        PhoneNumber p = PhoneNumber.from("415-444-3322").saveItem();
+        assertTrue(phones().findById(p.getKey()).isPresent());
+        Map<String, Number> before = RegionCaches.statistics(entityManagerFactory);
+
+        assertTrue(phones().findById(p.getKey()).isPresent()); // served from the phones region
+        Map<String, Number> after = RegionCaches.statistics(entityManagerFactory);
+        assertTrue(after.get("phones.hits").longValue() > before.get("phones.hits").longValue());
+
+        assertTrue(p.removeItem());
+        assertFalse(phones().findById(p.getKey()).isPresent());
+        report(after.toString());
+    }
+
     static final String PhoneReport = "%s: %s";
     void reportPhone(String state, PhoneNumber n) { report(String.format(PhoneReport, state, n.hashDescription())); }
 
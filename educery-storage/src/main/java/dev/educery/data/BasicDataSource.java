@@ -1,9 +1,15 @@
 package dev.educery.data;
 
-import java.util.Properties;
+import java.util.*;
+import javax.sql.DataSource;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import dev.educery.storage.KeyCache;
+import dev.educery.storage.HashFilter;
+import dev.educery.storage.PooledKeys;
 
 /**
  * Abstract data source.
@@ -17,22 +23,70 @@ public abstract class BasicDataSource {
     public static final String Comma = ",";
     public static final String HibernateDialect = "hibernate.dialect";
     public static final String HibernateCodeDDL = "hibernate.hbm2ddl.auto";
+    public static final String HibernateImportFiles = "hibernate.hbm2ddl.import_files";
+    public static final String HibernateSecondLevel = "hibernate.cache.use_second_level_cache";
+    public static final String HibernateQueryCache = "hibernate.cache.use_query_cache";
+    public static final String HibernateRegionFactory = "hibernate.cache.region.factory_class";
+    public static final String HibernateCacheManager = "hibernate.javax.cache.cache_manager";
+    public static final String HibernateStatistics = "hibernate.generate_statistics";
+    public static final String JCacheFactory = "jcache";
 
     @Bean public static PropertySourcesPlaceholderConfigurer propertyReplacer() {
         return new PropertySourcesPlaceholderConfigurer(); }
 
+    @Value("${db.type}") private String databaseType;
     @Value("${${db.type}.db.dialect}") private String databaseDialect;
     @Value("${${db.type}.db.code.ddl}") private String codeGeneration;
+    @Value("${${db.type}.db.import.files:}") private String importFiles; // run only when DDL creates the schema
 
     @Value("${db.model.packages}") private String modelPackages;
     public String[] modelPackages() { return modelPackages.split(Comma); }
 
+    @Value("${db.cache.keys.capacity:10000}") private int keyCapacity;
+    @Value("${db.cache.keys.absent.millis:2000}") private long keyAbsentMillis;
+    @Bean public KeyCache.Registry keyCacheRegistry() {
+        return KeyCache.Registry.with(keyCapacity, keyAbsentMillis); }
+
+    @Value("${db.filter.hashes.error.rate:0.01}") private double hashErrorRate;
+    @Bean public HashFilter.Registry hashFilterRegistry() { return HashFilter.Registry.with(hashErrorRate); }
+
+    @Value("${db.replica.balance:round-robin}") private String replicaBalance;
+    @Value("${db.replica.lag.millis:1000}") private long replicaLagMillis;
+    /**
+     * @param primary a primary data source
+     * @param replicas some (optional) replica data sources
+     * @return the primary, or a lazy data source that routes read-only transactions to the replicas
+     */
+    protected DataSource routed(DataSource primary, List<DataSource> replicas) {
+        if (replicas.isEmpty()) return primary;
+        return RoutingDataSource.with(primary, replicas)
+                .balancedBy(RoutingDataSource.Balance.named(replicaBalance))
+                .lagging(replicaLagMillis).lazily();
+    }
+
+    @Value("${db.keys.allocation.size:50}") private int keyAllocationSize;
+    @Autowired private Environment environment;
+    @Value("${db.cache.level2:false}") private boolean secondLevelCache;
+    @Value("${db.cache.regions:}") private String cacheRegions;
+
     public Properties additionalProperties() {
         Properties properties = new Properties();
         properties.setProperty(HibernateDialect, databaseDialect);
         if (!codeGeneration.isEmpty()) {
             properties.setProperty(HibernateCodeDDL, codeGeneration);
         }
+        if (!importFiles.isEmpty()) {
+            properties.setProperty(HibernateImportFiles, importFiles);
+        }
+        TuningProfile.from(environment, databaseType).applyTo(properties);
+        properties.setProperty(PooledKeys.AllocationSize, String.valueOf(keyAllocationSize));
+        properties.setProperty(HibernateSecondLevel, String.valueOf(secondLevelCache));
+        properties.setProperty(HibernateQueryCache, String.valueOf(secondLevelCache));
+        properties.setProperty(HibernateStatistics, String.valueOf(secondLevelCache));
+        if (secondLevelCache) {
+            properties.setProperty(HibernateRegionFactory, JCacheFactory);
+            properties.put(HibernateCacheManager, RegionCaches.from(environment).build(cacheRegions.split(Comma)));
+        }
         return properties;
     }
 
@@ -1,5 +1,6 @@
 package dev.educery.data;
 
+import java.util.*;
 import javax.sql.DataSource;
 import org.springframework.context.annotation.*;
 import org.springframework.beans.factory.annotation.Value;
@@ -33,20 +34,37 @@ public class CloudDataSource extends BasicDataSource implements Logging {
 
     @Value("${cloud.db.driver}") String driverClassName;
     @Value("${cloud.db.url.pattern}") String cloudUrlPattern;
-    private String formURL() { return String.format(cloudUrlPattern, databaseHost(), databaseName()); }
+    private String formURL(String host) { return String.format(cloudUrlPattern, host, databaseName()); }
 
     static final String CloudURL = "JPA cloud URL: %s";
     static final String CloudDriver = "JPA cloud driver: %s";
     @Bean public DataSource dataSource() {
-        String databaseURL = formURL();
+        String databaseURL = formURL(databaseHost());
         report(String.format(CloudDriver, driverClassName));
         report(String.format(CloudURL, databaseURL));
+        return routed(dataSource(databaseURL), replicas());
+    }
+
+    static final String ReplicaURL = "JPA replica URL: %s";
+    @Value("#{environment['${cloud.db.replica.hosts:}']}") String replicaHosts;
+    private List<DataSource> replicas() {
+        ArrayList<DataSource> results = new ArrayList<>();
+        for (String host : StringUtils.defaultString(replicaHosts).split(Comma)) {
+            if (!host.trim().isEmpty()) {
+                String url = formURL(host.trim());
+                report(String.format(ReplicaURL, url));
+                results.add(dataSource(url));
+            }
+        }
+        return results;
+    }
 
+    private DataSource dataSource(String url) {
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
         dataSource.setDriverClassName(driverClassName);
         dataSource.setUsername(databaseUsername);
         dataSource.setPassword(databasePassword);
-        dataSource.setUrl(databaseURL);
+        dataSource.setUrl(url);
         return dataSource;
     }
 
@@ -1,5 +1,6 @@
 package dev.educery.data;
 
+import java.util.*;
 import javax.sql.DataSource;
 import org.springframework.context.annotation.*;
 import org.springframework.beans.factory.annotation.Value;
@@ -31,12 +32,28 @@ public class DirectDataSource extends BasicDataSource implements Logging {
     @Bean public DataSource dataSource() {
         report(String.format(DirectDriver, driverClassName));
         report(String.format(DirectURL, databaseURL));
+        return routed(dataSource(databaseURL), replicas());
+    }
+
+    static final String ReplicaURL = "JPA replica URL: %s";
+    @Value("${${db.type}.db.replica.urls:}") private String replicaURLs;
+    private List<DataSource> replicas() {
+        ArrayList<DataSource> results = new ArrayList<>();
+        for (String url : replicaURLs.split(Comma)) {
+            if (!url.trim().isEmpty()) {
+                report(String.format(ReplicaURL, url.trim()));
+                results.add(dataSource(url.trim()));
+            }
+        }
+        return results;
+    }
 
+    private DataSource dataSource(String url) {
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
         dataSource.setDriverClassName(driverClassName);
         dataSource.setUsername(databaseUsername);
         dataSource.setPassword(databasePassword);
-        dataSource.setUrl(databaseURL);
+        dataSource.setUrl(url);
         return dataSource;
     }
 
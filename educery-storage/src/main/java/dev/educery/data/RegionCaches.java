@@ -0,0 +1,101 @@
+package dev.educery.data;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.cache.Caching;
+import javax.cache.CacheManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.springframework.core.env.Environment;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import static dev.educery.utils.Exceptional.*;
+
+/**
+ * Configures the (Caffeine) caches of the second level cache regions, and reports their statistics.
+ * Each region may be sized and expired separately in db.properties, falling back to the defaults:
+ * <pre>
+ * db.cache.region.size=10000
+ * db.cache.region.expiry.seconds=600
+ * db.cache.region.contacts.size=5000
+ * </pre>
+ * A size or expiry of zero leaves a region unbounded or unexpired.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class RegionCaches {
+
+    public static final String RegionPrefix = "db.cache.region.";
+    public static final String SizeSuffix = "size";
+    public static final String ExpirySuffix = "expiry.seconds";
+    public static final long DefaultSize = 10000;
+    public static final long DefaultExpiry = 600;
+
+    private final Environment environment;
+    private RegionCaches(Environment environment) { this.environment = environment; }
+    public static RegionCaches from(Environment environment) { return new RegionCaches(environment); }
+
+    /**
+     * @param regions the names of the cache regions
+     * @return a cache manager with a configured cache for each region
+     */
+    public CacheManager build(String... regions) {
+        CacheManager result = Caching.getCachingProvider(CaffeineCachingProvider.class.getName()).getCacheManager();
+        for (String region : regions) {
+            if (!region.trim().isEmpty() && result.getCache(region.trim()) == null) {
+                result.createCache(region.trim(), configure(region.trim()));
+            }
+        }
+        return result;
+    }
+
+    private CaffeineConfiguration<Object, Object> configure(String region) {
+        long size = setting(region, SizeSuffix, DefaultSize);
+        long expiry = setting(region, ExpirySuffix, DefaultExpiry);
+
+        CaffeineConfiguration<Object, Object> result = new CaffeineConfiguration<>();
+        result.setStoreByValue(false); // hibernate caches its own disassembled entries
+        if (size > 0) result.setMaximumSize(OptionalLong.of(size));
+        if (expiry > 0) result.setExpireAfterWrite(OptionalLong.of(TimeUnit.SECONDS.toNanos(expiry)));
+        return result;
+    }
+
+    private long setting(String region, String suffix, long defaultValue) {
+        long value = environment.getProperty(RegionPrefix + suffix, Long.class, defaultValue);
+        return environment.getProperty(RegionPrefix + region + "." + suffix, Long.class, value);
+    }
+
+    static final String Dot = ".";
+    static final String QueryCache = "queries";
+    /**
+     * @param factory an entity manager factory
+     * @return the statistics of the second level cache regions and query cache
+     */
+    public static Map<String, Number> statistics(EntityManagerFactory factory) {
+        TreeMap<String, Number> results = new TreeMap<>();
+        SessionFactory sessions = nullOrTryQuietly(() -> factory.unwrap(SessionFactory.class));
+        if (sessions == null || !sessions.getStatistics().isStatisticsEnabled()) return results;
+
+        Statistics stats = sessions.getStatistics();
+        for (String region : stats.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics r = nullOrTryQuietly(() -> stats.getCacheRegionStatistics(region));
+            if (r != null) {
+                results.put(region + Dot + "hits", r.getHitCount());
+                results.put(region + Dot + "misses", r.getMissCount());
+                results.put(region + Dot + "puts", r.getPutCount());
+                results.put(region + Dot + "size", r.getElementCountInMemory());
+            }
+        }
+
+        results.put(QueryCache + Dot + "hits", stats.getQueryCacheHitCount());
+        results.put(QueryCache + Dot + "misses", stats.getQueryCacheMissCount());
+        results.put(QueryCache + Dot + "puts", stats.getQueryCachePutCount());
+        return results;
+    }
+
+} // RegionCaches
@@ -0,0 +1,155 @@
+package dev.educery.data;
+
+import java.util.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes read-only transactions to read replicas, and everything else to a primary database.
+ * Replicas get picked round-robin or by their least active connections.
+ * After each committed write, reads stay on the primary for a lag window, so they see their writes
+ * even when the replicas trail behind the primary. Configured in db.properties, e.g.:
+ * <pre>
+ * test.db.replica.urls=jdbc:h2:./target/replica
+ * db.replica.balance=least-connections
+ * db.replica.lag.millis=1000
+ * </pre>
+ * Wrap it with lazily() so that connections get fetched only after a transaction declares itself read-only.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class RoutingDataSource extends AbstractRoutingDataSource {
+
+    /**
+     * The available replica balancing strategies.
+     */
+    public static enum Balance {
+        RoundRobin("round-robin"), LeastConnections("least-connections");
+
+        private final String name;
+        Balance(String name) { this.name = name; }
+        public String getName() { return this.name; }
+
+        static final String Invalid = "invalid db.replica.balance=%s, expected round-robin or least-connections";
+        public static Balance named(String name) {
+            for (Balance b : values()) if (b.getName().equals(name.trim())) return b;
+            throw new IllegalArgumentException(String.format(Invalid, name));
+        }
+    } // Balance
+
+    public static final String Primary = "primary";
+    public static final long DefaultLagMillis = 1000;
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private Balance balance = Balance.RoundRobin;
+    private long lagMillis = DefaultLagMillis;
+    private volatile long lastWrite = 0;
+
+    private RoutingDataSource(DataSource primary, List<DataSource> replicaSources) {
+        HashMap<Object, Object> targets = new HashMap<>();
+        targets.put(Primary, primary);
+        for (DataSource source : replicaSources) {
+            Replica replica = new Replica(source);
+            targets.put(replicas.size(), replica);
+            replicas.add(replica);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+    }
+
+    /**
+     * @param primary a primary data source
+     * @param replicas some replica data sources
+     * @return a new RoutingDataSource
+     */
+    public static RoutingDataSource with(DataSource primary, List<DataSource> replicas) {
+        return new RoutingDataSource(primary, replicas); }
+
+    public RoutingDataSource balancedBy(Balance balance) { this.balance = balance; return this; }
+    public RoutingDataSource lagging(long lagMillis) { this.lagMillis = Math.max(0, lagMillis); return this; }
+
+    /**
+     * @return a lazy connection proxy of this routing data source
+     */
+    public DataSource lazily() { afterPropertiesSet(); return new LazyConnectionDataSourceProxy(this); }
+
+    /**
+     * @return the active connection count of each replica
+     */
+    public List<Integer> activeReplicaConnections() {
+        ArrayList<Integer> results = new ArrayList<>();
+        replicas.forEach(r -> results.add(r.active.get()));
+        return results;
+    }
+
+    @Override protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new WriteTracker());
+            }
+            return Primary;
+        }
+
+        if (replicas.isEmpty() || System.currentTimeMillis() - lastWrite < lagMillis) return Primary;
+        return balance == Balance.LeastConnections ? leastConnected() : roundRobin();
+    }
+
+    private int roundRobin() { return Math.floorMod(nextReplica.getAndIncrement(), replicas.size()); }
+    private int leastConnected() {
+        int result = roundRobin(); // rotates among equally idle replicas
+        for (int index = 0; index < replicas.size(); index++) {
+            if (replicas.get(index).active.get() < replicas.get(result).active.get()) result = index;
+        }
+        return result;
+    }
+
+    /**
+     * Notes when a write transaction commits, to start the lag window.
+     */
+    private class WriteTracker implements TransactionSynchronization {
+        @Override public void afterCommit() { lastWrite = System.currentTimeMillis(); }
+    } // WriteTracker
+
+    /**
+     * Counts the active connections of a replica.
+     */
+    static class Replica extends DelegatingDataSource {
+
+        static final String Close = "close";
+        final AtomicInteger active = new AtomicInteger();
+        Replica(DataSource source) { super(source); }
+
+        @Override public Connection getConnection() throws SQLException {
+            return counted(super.getConnection()); }
+
+        @Override public Connection getConnection(String username, String password) throws SQLException {
+            return counted(super.getConnection(username, password)); }
+
+        private Connection counted(Connection connection) {
+            active.incrementAndGet();
+            AtomicBoolean open = new AtomicBoolean(true);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    if (method.getName().equals(Close) && open.compareAndSet(true, false)) active.decrementAndGet();
+                    try { return method.invoke(connection, args); }
+                    catch (InvocationTargetException e) { throw e.getTargetException(); }
+                });
+        }
+    } // Replica
+
+} // RoutingDataSource
@@ -0,0 +1,92 @@
+package dev.educery.data;
+
+import java.util.*;
+import org.springframework.core.env.Environment;
+
+/**
+ * A curated set of Hibernate and JDBC tuning properties, configured per database type in db.properties.
+ * For example, with db.type=test:
+ * <pre>
+ * test.db.tuning.batch.size=50
+ * test.db.tuning.order.inserts=true
+ * </pre>
+ * Unconfigured tunings keep their Hibernate defaults, and invalid values fail fast.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class TuningProfile {
+
+    /**
+     * The available tunings, with their Hibernate property names.
+     */
+    public static enum Tuning {
+        BatchSize("batch.size", "hibernate.jdbc.batch_size", true),
+        FetchSize("fetch.size", "hibernate.jdbc.fetch_size", true),
+        OrderInserts("order.inserts", "hibernate.order_inserts", false),
+        OrderUpdates("order.updates", "hibernate.order_updates", false),
+        BatchVersioned("batch.versioned", "hibernate.jdbc.batch_versioned_data", false),
+        GeneratedKeys("generated.keys", "hibernate.jdbc.use_get_generated_keys", false),
+        BatchFetchSize("batch.fetch.size", "hibernate.default_batch_fetch_size", true),
+        PlanCacheSize("plan.cache.size", "hibernate.query.plan_cache_max_size", true),
+        InClausePadding("in.clause.padding", "hibernate.query.in_clause_parameter_padding", false);
+
+        private final String name;
+        private final String property;
+        private final boolean numeric;
+        Tuning(String name, String property, boolean numeric) {
+            this.name = name; this.property = property; this.numeric = numeric; }
+
+        public String getName() { return this.name; }
+        public String getProperty() { return this.property; }
+
+        static final String Invalid = "invalid %s=%s, expected %s";
+        static final String Count = "a non-negative integer";
+        static final String Flag = "true or false";
+        String validate(String key, String value) {
+            String result = value.trim();
+            boolean valid = numeric ? result.matches("\\d+") : result.matches("true|false");
+            if (!valid) throw new IllegalArgumentException(String.format(Invalid, key, value, numeric ? Count : Flag));
+            return result;
+        }
+    } // Tuning
+
+    static final String TuningPrefix = "%s.db.tuning.";
+    private final Environment environment;
+    private final String prefix;
+    private TuningProfile(Environment environment, String databaseType) {
+        this.environment = environment;
+        this.prefix = String.format(TuningPrefix, databaseType);
+    }
+
+    /**
+     * @param environment a configured environment
+     * @param databaseType a database type (db.type)
+     * @return a new TuningProfile
+     */
+    public static TuningProfile from(Environment environment, String databaseType) {
+        return new TuningProfile(environment, databaseType); }
+
+    /**
+     * @return the configured Hibernate tuning properties
+     * @throws IllegalArgumentException if a configured value is invalid
+     */
+    public Map<String, String> properties() {
+        TreeMap<String, String> results = new TreeMap<>();
+        for (Tuning t : Tuning.values()) {
+            String key = prefix + t.getName();
+            String value = environment.getProperty(key);
+            if (value != null && !value.trim().isEmpty()) results.put(t.getProperty(), t.validate(key, value));
+        }
+        return results;
+    }
+
+    /**
+     * Adds the configured tuning properties to some Hibernate properties.
+     * @param properties some Hibernate properties
+     * @return the supplied properties
+     */
+    public Properties applyTo(Properties properties) { properties.putAll(properties()); return properties; }
+
+} // TuningProfile
@@ -0,0 +1,38 @@
+package dev.educery.storage;
+
+import java.util.*;
+import java.io.Serializable;
+
+/**
+ * Logs the keys added to (or replaced in) and removed from a component map since its composite was loaded or saved.
+ * @param <KeyType> a kind of map key
+ *
+ * <h4>ChangeLog Responsibilities:</h4>
+ * <ul>
+ * <li>knows whether any keys were added, replaced, or removed</li>
+ * <li>forgets a key found unchanged after all (e.g., when a decoded composite adopts its stored parts)</li>
+ * <li>forgets its changes once they get saved</li>
+ * </ul>
+ *
+ * <h4>Client Responsibilities:</h4>
+ * <ul>
+ * <li>logs each change made to its component map</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class ChangeLog<KeyType> implements Serializable {
+
+    static final long serialVersionUID = 1001001L;
+    private final Set<KeyType> added = new HashSet<>();
+    private final Set<KeyType> removed = new HashSet<>();
+
+    public void added(KeyType key) { removed.remove(key); added.add(key); }
+    public void removed(KeyType key) { added.remove(key); removed.add(key); }
+    public void unchanged(KeyType key) { added.remove(key); removed.remove(key); }
+    public void clear() { added.clear(); removed.clear(); }
+    public boolean isEmpty() { return added.isEmpty() && removed.isEmpty(); }
+
+} // ChangeLog
@@ -0,0 +1,242 @@
+package dev.educery.storage;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import static dev.educery.utils.Utils.hasOne;
+
+/**
+ * A Bloom filter over the hash keys of the stored items of a type.
+ * Until built from storage, a filter considers every hash key possibly present.
+ * Once built, a filter that rejects a hash key proves its item absent from storage,
+ * which lets a duplicate check skip its query.
+ *
+ * <h4>HashFilter Responsibilities:</h4>
+ * <ul>
+ * <li>knows (probably) which hash keys have been stored</li>
+ * <li>rebuilds itself from the stored hash keys, shedding those of removed items</li>
+ * <li>counts its skipped queries and observed false positives</li>
+ * </ul>
+ *
+ * <h4>Client Responsibilities:</h4>
+ * <ul>
+ * <li>adds the hash key of each saved item</li>
+ * <li>rebuilds the filter periodically</li>
+ * </ul>
+ *
+ * A filter only knows the items saved through this process, so it suits a single service instance.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class HashFilter {
+
+    public static final int MinimumCapacity = 100000;
+    public static final double DefaultErrorRate = 0.01;
+
+    private final double errorRate;
+    private volatile Bits bits = null; // null until built
+    private volatile Bits pending = null; // while rebuilding
+
+    static final int RecentLimit = 4096; // replayed after a rebuild, covers saves not yet committed
+    private final ConcurrentLinkedDeque<Long> recent = new ConcurrentLinkedDeque<>();
+
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public HashFilter(double errorRate) { this.errorRate = errorRate; }
+
+    public boolean isReady() { return hasOne(bits); }
+
+    /**
+     * @param hashKey a hash key
+     * @return whether an item with a hash key might have been stored
+     */
+    public boolean mightContain(long hashKey) {
+        Bits current = this.bits;
+        if (current == null || current.contains(hashKey)) return true;
+        skipped.increment();
+        return false;
+    }
+
+    /**
+     * Counts a lookup that this filter let through, but which found nothing.
+     */
+    public void reportAbsent() { if (isReady()) falsePositives.increment(); }
+
+    /**
+     * Adds the hash key of a saved item.
+     * Recent hash keys also get replayed after a rebuild, in case their saves commit during it.
+     * @param hashKey a hash key
+     */
+    public void add(long hashKey) {
+        recent.addLast(hashKey);
+        Bits current = this.bits;
+        Bits next = this.pending;
+        if (hasOne(current)) current.add(hashKey);
+        if (hasOne(next)) next.add(hashKey);
+
+        if (recent.size() > RecentLimit) recent.pollFirst();
+    }
+
+    /**
+     * Rebuilds this filter from the stored hash keys. Requires a surrounding transaction.
+     * @param store a hashed item store
+     * @return a count of the stored hash keys
+     */
+    public synchronized int rebuild(Hashed.Search<?> store) {
+        Bits next = new Bits(Math.max(MinimumCapacity, 2 * store.count()), errorRate);
+        this.pending = next;
+        try (Stream<Long> keys = store.streamHashKeys()) {
+            keys.forEach(hashKey -> next.add(hashKey));
+            int result = next.count();
+            recent.forEach(hashKey -> next.add(hashKey));
+            this.bits = next;
+            return result;
+        }
+        finally {
+            this.pending = null;
+        }
+    }
+
+    /**
+     * @return the fraction of rejected absent items that this filter let through
+     */
+    public double falsePositiveRate() {
+        long found = falsePositives.sum();
+        long total = found + skipped.sum();
+        return total == 0 ? 0.0 : (double) found / total;
+    }
+
+    static final String Dot = ".";
+    public Map<String, Number> statistics(String prefix) {
+        HashMap<String, Number> results = new HashMap<>();
+        Bits current = this.bits;
+        results.put(prefix + Dot + "ready", isReady() ? 1 : 0);
+        results.put(prefix + Dot + "skipped", skipped.sum());
+        results.put(prefix + Dot + "falsePositives", falsePositives.sum());
+        results.put(prefix + Dot + "falsePositiveRate", falsePositiveRate());
+        results.put(prefix + Dot + "count", hasOne(current) ? current.count() : 0);
+        results.put(prefix + Dot + "expectedErrorRate", hasOne(current) ? current.expectedErrorRate() : 1.0);
+        return results;
+    }
+
+    /**
+     * The bits of a Bloom filter, sized for a capacity and error rate.
+     */
+    static class Bits {
+
+        private final AtomicLongArray words;
+        private final long size;
+        private final int hashes;
+        private final LongAdder count = new LongAdder();
+
+        static final double Ln2 = Math.log(2);
+        Bits(long capacity, double errorRate) {
+            long bitCount = (long) Math.ceil(-capacity * Math.log(errorRate) / (Ln2 * Ln2));
+            int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) / 64);
+            this.words = new AtomicLongArray(wordCount);
+            this.size = 64L * wordCount;
+            this.hashes = Math.max(1, (int) Math.round((double) size / capacity * Ln2));
+        }
+
+        int count() { return count.intValue(); }
+
+        void add(long hashKey) {
+            long h = mix(hashKey);
+            int h1 = (int) h;
+            int h2 = (int) (h >>> 32);
+            for (int index = 0; index < hashes; index++) setBit(position(h1, h2, index));
+            count.increment();
+        }
+
+        boolean contains(long hashKey) {
+            long h = mix(hashKey);
+            int h1 = (int) h;
+            int h2 = (int) (h >>> 32);
+            for (int index = 0; index < hashes; index++) {
+                if (!hasBit(position(h1, h2, index))) return false;
+            }
+            return true;
+        }
+
+        private long position(int h1, int h2, int index) {
+            long combined = (long) h1 + (long) index * h2; // double hashing
+            return Math.floorMod(combined, size);
+        }
+
+        private boolean hasBit(long bit) { return (words.get((int) (bit >>> 6)) & (1L << bit)) != 0; }
+        private void setBit(long bit) {
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long value = words.get(word);
+            while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask)) value = words.get(word);
+        }
+
+        double expectedErrorRate() {
+            long set = 0;
+            for (int index = 0; index < words.length(); index++) set += Long.bitCount(words.get(index));
+            return Math.pow((double) set / size, hashes);
+        }
+
+        private static long mix(long h) { // spreads hash bits (murmur3 finalizer)
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+    } // Bits
+
+    /**
+     * @param itemType a hashed item type
+     * @return the hash filter for a given item type
+     */
+    public static HashFilter of(Class<?> itemType) { return Registry.Instance.filterFor(itemType); }
+
+    /**
+     * A hash filter registry. Provides a hash filter for each hashed item type.
+     */
+    public static class Registry {
+
+        private final double errorRate;
+        private final ConcurrentHashMap<Class<?>, HashFilter> filters = new ConcurrentHashMap<>();
+
+        Registry(double errorRate) { this.errorRate = errorRate; }
+
+        /**
+         * The singular registry.
+         */
+        static volatile Registry Instance = new Registry(DefaultErrorRate);
+
+        /**
+         * Configures the hash filters.
+         * @param errorRate the expected false positive rate of each filter
+         * @return a new Registry
+         */
+        public static Registry with(double errorRate) {
+            Registry result = new Registry(errorRate);
+            Instance = result;
+            return result;
+        }
+
+        public HashFilter filterFor(Class<?> itemType) {
+            return filters.computeIfAbsent(itemType, type -> new HashFilter(errorRate)); }
+
+        static final String FilterStats = "%s.hashes";
+        public static Map<String, Number> statistics() {
+            TreeMap<String, Number> results = new TreeMap<>();
+            Instance.filters.forEach((type, filter) ->
+                results.putAll(filter.statistics(String.format(FilterStats, type.getSimpleName()))));
+            return results;
+        }
+
+    } // Registry
+
+} // HashFilter
@@ -1,11 +1,12 @@
 package dev.educery.storage;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 import javax.persistence.Column;
 import javax.persistence.MappedSuperclass;
 import org.springframework.data.repository.CrudRepository;
 import dev.educery.crypto.LongHash;
-import static dev.educery.utils.Utils.hasNone;
+import static dev.educery.utils.Utils.*;
 
 /**
  * An immutable item uniquely identified using a hash of its contents.
@@ -26,6 +27,11 @@ public abstract class Hashed<ItemType>
      */
     public static interface Search<ItemType> extends CrudRepository<ItemType, Long> {
 
+        /**
+         * A query hint that caches query results (when the query cache is enabled).
+         */
+        static final String Cacheable = "org.hibernate.cacheable";
+
         /**
          * Finds a hashed item.
          *
@@ -34,6 +40,13 @@ public abstract class Hashed<ItemType>
          */
         public ItemType findHash(Long hashKey);
 
+        /**
+         * Streams the hash keys of the stored items. Requires a surrounding transaction.
+         *
+         * @return the stored hash keys
+         */
+        public Stream<Long> streamHashKeys();
+
     } // Search
 
     protected Search<ItemType> getSearchStore() { return (Search<ItemType>) getStore(); }
@@ -47,15 +60,73 @@ public abstract class Hashed<ItemType>
     @Column(name = "hash_key", nullable = false) protected long hashKey = 0;
 
     protected abstract long hash();
-    protected void resetHash() { this.hashKey = 0; }
-    protected void markDirty() { resetHash(); clearKey(); }
+    protected void resetHash() { this.hashKey = 0; this.absent = false; }
+    protected void markDirty() { resetHash(); clearKey(); markChanged(); }
     public void prepareHash() { if (hashKey == 0) this.hashKey = hash(); }
     public long hash(String value) { return LongHash.hash(value); }
 
     /**
-     * Finds this item with its hash.
+     * @return the cache of surrogate keys for items of this type
+     */
+    protected KeyCache keyCache() { return KeyCache.of(getClass()); }
+
+    /**
+     * @return the filter of stored hash keys for items of this type
+     */
+    protected HashFilter hashFilter() { return HashFilter.of(getClass()); }
+
+    /**
+     * Whether the last search for this item with its hash found nothing, e.g., while checking for duplicates.
+     * A later save of this (unchanged) item trusts that result instead of searching again,
+     * but only while the key cache still holds it as absent, i.e., it has neither expired,
+     * nor been evicted, nor been replaced by the key of a saved item with the same hash.
      */
-    public ItemType findWithHash() { prepareHash(); return getSearchStore().findHash(hashKey()); }
+    public boolean wasAbsent() {
+        return this.absent && Long.valueOf(KeyCache.Absent).equals(keyCache().find(hashKey())); }
+    private transient boolean absent = false;
+
+    /**
+     * Finds this item with its hash, consulting the key cache before searching storage.
+     * A cached key that no longer identifies an item with this hash gets forgotten.
+     * A hash rejected by the hash filter was never stored, so its search gets skipped (and cached as absent).
+     */
+    public ItemType findWithHash() {
+        ItemType result = searchHash();
+        this.absent = hasNone(result);
+        return result;
+    }
+
+    private ItemType searchHash() {
+        long hashKey = hashKey();
+        Long key = keyCache().find(hashKey);
+        if (hasOne(key)) {
+            if (key == KeyCache.Absent) return null;
+            ItemType result = findCached(key, hashKey);
+            if (hasOne(result)) return result;
+            keyCache().forget(hashKey);
+        }
+
+        if (!hashFilter().mightContain(hashKey)) return remember(null, hashKey);
+        ItemType result = getSearchStore().findHash(hashKey);
+        if (hasNone(result)) hashFilter().reportAbsent();
+        return remember(result, hashKey);
+    }
+
+    private ItemType findCached(long key, long hashKey) {
+        Optional<ItemType> result = getStore().findById(key);
+        if (!result.isPresent()) return null;
+        return ((HashedItem) result.get()).hashKey() == hashKey ? result.get() : null;
+    }
+
+    private ItemType remember(ItemType item, long hashKey) {
+        if (hasNone(item)) { keyCache().rememberAbsent(hashKey); return item; }
+        keyCache().remember(hashKey, ((HashedItem) item).getKey());
+        hashFilter().add(hashKey);
+        return item;
+    }
+
+    private ItemType remember(ItemType item) {
+        return hasNone(item) ? item : remember(item, ((HashedItem) item).hashKey()); }
 
     /**
      * Finds this item with its hash, or key if previously saved.
@@ -67,12 +138,27 @@ public abstract class Hashed<ItemType>
     }
 
     /**
-     * Saves this (immutable) item.
+     * Saves this (immutable) item, unless already found with its hash.
      */
     @Override public ItemType saveItem() {
-        if (wasSaved()) return isComposite() ? super.saveItem() : findItem();
-        ItemType result = findWithHash();
-        return hasNone(result) ? super.saveItem() : result;
+        if (wasSaved()) return isComposite() ? remember(super.saveItem()) : saved(findItem());
+        ItemType result = wasAbsent() ? null : findWithHash();
+        return hasNone(result) ? remember(super.saveItem()) : saved(result);
+    }
+
+    private ItemType saved(ItemType item) {
+        if (hasOne(item)) ((Surrogated) item).markSaved();
+        return item;
+    }
+
+    /**
+     * Removes this item from its backing store, and forgets its cached key.
+     */
+    @Override public boolean removeItem() {
+        long hashKey = hashKey();
+        boolean result = super.removeItem();
+        if (result) keyCache().forget(hashKey);
+        return result;
     }
 
 } // Hashed<ItemType>
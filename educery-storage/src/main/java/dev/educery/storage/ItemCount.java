@@ -0,0 +1,139 @@
+package dev.educery.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A maintained count of the stored items of a type, which spares a full table count per request.
+ * The count gets loaded from storage on first use, adjusted as items are saved and removed,
+ * and then periodically reconciled with storage to correct any drift,
+ * e.g., from cascaded removals or other service nodes.
+ *
+ * <h4>ItemCount Responsibilities:</h4>
+ * <ul>
+ * <li>knows the (approximate) count of stored items</li>
+ * <li>adjusts its count once a transaction that saved or removed an item commits</li>
+ * <li>includes the pending adjustments of the current transaction in its count</li>
+ * <li>reconciles its count with storage, including adjustments made during the reconciliation</li>
+ * <li>knows its drift as of its last reconciliation</li>
+ * </ul>
+ *
+ * <h4>Client Responsibilities:</h4>
+ * <ul>
+ * <li>reports the insertion and removal of each item</li>
+ * <li>reconciles each count periodically</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class ItemCount {
+
+    private volatile boolean known = false;
+    private volatile long base = 0; // the stored count less the adjustments as of the last reconciliation
+    private final AtomicLong adjustments = new AtomicLong();
+    private final AtomicLong drift = new AtomicLong();
+    private final LongAdder reconciles = new LongAdder();
+
+    /**
+     * @param store a storage mechanism
+     * @return the count of stored items
+     */
+    public long count(CrudRepository<?, Long> store) {
+        if (!known) reconcile(store);
+        return base + adjustments.get() + pending();
+    }
+
+    public void added() { adjust(1); }
+    public void removed() { adjust(-1); }
+    private void adjust(long delta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) { adjustments.addAndGet(delta); return; }
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new Pending();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.delta += delta;
+    }
+
+    private long pending() {
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        return pending == null ? 0 : pending.delta;
+    }
+
+    /**
+     * Applies the adjustments of a transaction once it commits.
+     */
+    private class Pending implements TransactionSynchronization {
+        long delta = 0;
+        @Override public void afterCommit() { adjustments.addAndGet(delta); }
+        @Override public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(ItemCount.this); }
+    } // Pending
+
+    /**
+     * Reconciles this count with storage, which should be the primary database (not a trailing replica).
+     * The adjustments get marked after counting, so a transaction that commits during the count gets counted once,
+     * even when its adjustment comes later. One adjusted during the count may still be missed by the count,
+     * which leaves a bounded drift, until the next reconciliation.
+     * @param store a storage mechanism
+     * @return the count of stored items
+     */
+    public synchronized long reconcile(CrudRepository<?, Long> store) {
+        long stored = store.count();
+        long mark = adjustments.get() + pending(); // storage includes the current transaction
+        if (known) drift.set(stored - (base + mark));
+        base = stored - mark; // keep any adjustments made while counting
+        known = true;
+        reconciles.increment();
+        return stored;
+    }
+
+    static final String Dot = ".";
+    public Map<String, Number> statistics(String prefix) {
+        HashMap<String, Number> results = new HashMap<>();
+        results.put(prefix + Dot + "value", base + adjustments.get());
+        results.put(prefix + Dot + "drift", drift.get());
+        results.put(prefix + Dot + "reconciles", reconciles.sum());
+        return results;
+    }
+
+    /**
+     * @param itemType a stored item type
+     * @return the item count for a given item type
+     */
+    public static ItemCount of(Class<?> itemType) { return Registry.Instance.countFor(itemType); }
+
+    /**
+     * An item count registry. Provides an item count for each stored item type.
+     */
+    public static class Registry {
+
+        private final ConcurrentHashMap<Class<?>, ItemCount> counts = new ConcurrentHashMap<>();
+
+        /**
+         * The singular registry.
+         */
+        static final Registry Instance = new Registry();
+
+        public ItemCount countFor(Class<?> itemType) {
+            return counts.computeIfAbsent(itemType, type -> new ItemCount()); }
+
+        static final String CountStats = "%s.counts";
+        public static Map<String, Number> statistics() {
+            TreeMap<String, Number> results = new TreeMap<>();
+            Instance.counts.forEach((type, count) ->
+                results.putAll(count.statistics(String.format(CountStats, type.getSimpleName()))));
+            return results;
+        }
+
+    } // Registry
+
+} // ItemCount
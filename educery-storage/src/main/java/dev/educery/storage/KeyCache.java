@@ -0,0 +1,178 @@
+package dev.educery.storage;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * A bounded cache that maps the hash keys of stored items to their surrogate keys.
+ * Hash keys known to be absent from storage are also remembered, but only briefly.
+ *
+ * <h4>KeyCache Responsibilities:</h4>
+ * <ul>
+ * <li>knows the surrogate keys of recently found or saved hashed items</li>
+ * <li>knows which hash keys were recently found absent</li>
+ * <li>evicts its entries beyond its capacity</li>
+ * <li>counts its hits, misses, and evictions</li>
+ * </ul>
+ *
+ * <h4>Client Responsibilities:</h4>
+ * <ul>
+ * <li>verifies that a cached surrogate key still identifies the hashed item</li>
+ * <li>forgets the hash keys of removed items</li>
+ * </ul>
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class KeyCache {
+
+    public static final long Absent = 0;
+    public static final int DefaultCapacity = 10000;
+    public static final long DefaultAbsentMillis = 2000;
+
+    private final Cache<Long, Long> keys;
+    private final Cache<Long, Boolean> absences; // null when absences are not remembered
+
+    public KeyCache(int capacity, long absentMillis) {
+        this.keys = Caffeine.newBuilder().maximumSize(Math.max(0, capacity)).recordStats().build();
+        this.absences = absentMillis <= 0 ? null :
+            Caffeine.newBuilder().maximumSize(Math.max(0, capacity))
+                .expireAfterWrite(absentMillis, TimeUnit.MILLISECONDS).recordStats().build();
+    }
+
+    /**
+     * @param hashKey a hash key
+     * @return a surrogate key, Absent if known to be absent, or null if unknown
+     */
+    public Long find(long hashKey) {
+        Long result = keys.getIfPresent(hashKey);
+        if (result != null || absences == null) return result;
+        return absences.getIfPresent(hashKey) == null ? null : Absent;
+    }
+
+    /**
+     * Remembers the surrogate key of a stored item.
+     * @param hashKey a hash key
+     * @param key a surrogate key
+     */
+    public void remember(long hashKey, long key) {
+        if (key == Absent) { rememberAbsent(hashKey); return; }
+        keys.put(hashKey, key);
+        if (absences != null) absences.invalidate(hashKey);
+    }
+
+    /**
+     * Remembers (briefly) that an item is absent from storage, unless its key is already known.
+     * A search that missed may finish after a concurrent save remembered the item key,
+     * which must survive, so lookups always consult the known keys first.
+     * @param hashKey a hash key
+     */
+    public void rememberAbsent(long hashKey) {
+        if (absences == null || keys.asMap().containsKey(hashKey)) return;
+        absences.put(hashKey, Boolean.TRUE);
+    }
+
+    /**
+     * Forgets a hash key.
+     * @param hashKey a hash key
+     */
+    public void forget(long hashKey) {
+        keys.invalidate(hashKey);
+        if (absences != null) absences.invalidate(hashKey);
+    }
+
+    public void clear() {
+        keys.invalidateAll();
+        if (absences != null) absences.invalidateAll();
+    }
+
+    public int size() {
+        keys.cleanUp();
+        if (absences == null) return (int) keys.estimatedSize();
+        absences.cleanUp();
+        return (int) (keys.estimatedSize() + absences.estimatedSize());
+    }
+
+    /**
+     * @return the fraction of lookups answered by this cache
+     */
+    public double hitRate() {
+        long found = keys.stats().hitCount() + absentHits();
+        long total = found + misses();
+        return total == 0 ? 0.0 : (double) found / total;
+    }
+
+    private long absentHits() { return absences == null ? 0 : absences.stats().hitCount(); }
+    private long misses() { return (absences == null ? keys : absences).stats().missCount(); } // keys miss first
+
+    private long evictions() {
+        CacheStats stats = keys.stats();
+        return stats.evictionCount() + (absences == null ? 0 : absences.stats().evictionCount());
+    }
+
+    static final String Dot = ".";
+    public Map<String, Number> statistics(String prefix) {
+        HashMap<String, Number> results = new HashMap<>();
+        results.put(prefix + Dot + "hits", keys.stats().hitCount());
+        results.put(prefix + Dot + "absentHits", absentHits());
+        results.put(prefix + Dot + "misses", misses());
+        results.put(prefix + Dot + "evictions", evictions());
+        results.put(prefix + Dot + "hitRate", hitRate());
+        results.put(prefix + Dot + "size", size());
+        return results;
+    }
+
+    /**
+     * @param itemType a hashed item type
+     * @return the key cache for a given item type
+     */
+    public static KeyCache of(Class<?> itemType) { return Registry.Instance.cacheFor(itemType); }
+
+    /**
+     * A key cache registry. Provides a key cache for each hashed item type.
+     */
+    public static class Registry {
+
+        private final int capacity;
+        private final long absentMillis;
+        private final ConcurrentHashMap<Class<?>, KeyCache> caches = new ConcurrentHashMap<>();
+
+        Registry(int capacity, long absentMillis) { this.capacity = capacity; this.absentMillis = absentMillis; }
+
+        /**
+         * The singular registry.
+         */
+        static volatile Registry Instance = new Registry(DefaultCapacity, DefaultAbsentMillis);
+
+        /**
+         * Configures the key caches.
+         * @param capacity the maximum number of entries in each cache
+         * @param absentMillis how long to remember absent items, or zero to not remember them
+         * @return a new Registry
+         */
+        public static Registry with(int capacity, long absentMillis) {
+            Registry result = new Registry(capacity, absentMillis);
+            Instance = result;
+            return result;
+        }
+
+        public KeyCache cacheFor(Class<?> itemType) {
+            return caches.computeIfAbsent(itemType, type -> new KeyCache(capacity, absentMillis)); }
+
+        static final String KeyStats = "%s.keys";
+        public static Map<String, Number> statistics() {
+            TreeMap<String, Number> results = new TreeMap<>();
+            Instance.caches.forEach((type, cache) ->
+                results.putAll(cache.statistics(String.format(KeyStats, type.getSimpleName()))));
+            return results;
+        }
+
+    } // Registry
+
+} // KeyCache
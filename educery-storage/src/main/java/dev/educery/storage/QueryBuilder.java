@@ -1,24 +1,44 @@
 package dev.educery.storage;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.engine.spi.SessionImplementor;
 
 import static dev.educery.utils.Utils.*;
 
 /**
  * Builds queries and count queries.
+ * Query texts get registered as named queries on first use, so each gets parsed only once.
+ * Named queries cannot be removed, so only RegistryLimit texts get registered, and later texts simply get parsed.
+ * So, query texts should be fixed, with their values passed as parameters.
+ * Large results may be scanned in constant memory, either streamed or in chunks, through a forward only cursor.
+ * Each scan runs in a private session that shares the connection (and transaction) of its caller's session,
+ * bypasses the second level cache, and gets cleared between chunks, so the caller's persistence context stays intact.
+ * So, scans need a transaction, and return detached results.
  *
  * <h4>QueryBuilder Responsibilities:</h4>
  * <ul>
  * <li>knows either query text or a query name</li>
  * <li>knows either count text or a count name</li>
- * <li>knows query parameter values</li>
- * <li>builds a query from its values</li>
+ * <li>knows query parameter values, in order</li>
+ * <li>knows any result window (first result, max results) and fetch size</li>
+ * <li>registers its query texts as named queries</li>
+ * <li>builds a (typed) query from its values</li>
+ * <li>scans the results of its query with a cursor</li>
  * </ul>
  *
  * <h4>Client Responsibilities:</h4>
@@ -32,7 +52,15 @@ import static dev.educery.utils.Utils.*;
  */
 public class QueryBuilder {
 
-    private final HashMap<String, Object> values = new HashMap<>();
+    private String queryName;
+    private String queryText;
+    private String countName;
+    private String countText;
+    private final LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+
+    private int firstResult = 0;
+    private int maxResults = 0;
+    private int fetchSize = 0;
 
     /**
      * @param queryName a query name
@@ -40,7 +68,8 @@ public class QueryBuilder {
      */
     public static QueryBuilder withQueryName(String queryName) {
         QueryBuilder result = new QueryBuilder();
-        return result.withValue(QueryName, queryName);
+        result.queryName = queryName;
+        return result;
     }
 
     /**
@@ -48,19 +77,22 @@ public class QueryBuilder {
      * @return a new QueryBuilder
      */
     public static QueryBuilder withQueryText(String queryText) {
-        return new QueryBuilder().withValue(QueryText, queryText); }
+        QueryBuilder result = new QueryBuilder();
+        result.queryText = queryText;
+        return result;
+    }
 
     /**
      * @param countName a count name
      * @return this QueryBuilder with a count
      */
-    public QueryBuilder withCountNamed(String countName) { return this.withValue(CountName, countName); }
+    public QueryBuilder withCountNamed(String countName) { this.countName = countName; return this; }
 
     /**
      * @param countText contains the text of a count query
      * @return this QueryBuilder with a count
      */
-    public QueryBuilder withCountText(String countText) { return this.withValue(CountText, countText); }
+    public QueryBuilder withCountText(String countText) { this.countText = countText; return this; }
 
     /**
      * @param valueName a value name
@@ -77,16 +109,34 @@ public class QueryBuilder {
     public QueryBuilder withValues(Map<String, Object> namedValues) {
         this.values.putAll(namedValues); return this; }
 
-    public boolean hasNamedQuery() { return this.values.containsKey(QueryName); }
-    public boolean hasNamedCount() { return this.values.containsKey(QueryName); }
-    public boolean hasTextQuery() { return this.values.containsKey(QueryText); }
-    public boolean hasTextCount() { return this.values.containsKey(QueryText); }
+    /**
+     * @param firstResult the position of the first result to select
+     * @return this QueryBuilder
+     */
+    public QueryBuilder withFirstResult(int firstResult) { this.firstResult = Math.max(0, firstResult); return this; }
 
-    public String getQueryName() { return (String) this.values.get(QueryName); }
-    public String getQueryText() { return (String) this.values.get(QueryText); }
+    /**
+     * @param maxResults the maximum number of results to select, or zero for all of them
+     * @return this QueryBuilder
+     */
+    public QueryBuilder withMaxResults(int maxResults) { this.maxResults = Math.max(0, maxResults); return this; }
 
-    public String getCountName() { return (String) this.values.get(CountName); }
-    public String getCountText() { return (String) this.values.get(CountText); }
+    /**
+     * @param fetchSize the number of rows to fetch per database round trip, or zero for the default
+     * @return this QueryBuilder
+     */
+    public QueryBuilder withFetchSize(int fetchSize) { this.fetchSize = Math.max(0, fetchSize); return this; }
+
+    public boolean hasNamedQuery() { return hasOne(this.queryName); }
+    public boolean hasNamedCount() { return hasOne(this.countName); }
+    public boolean hasTextQuery() { return hasOne(this.queryText); }
+    public boolean hasTextCount() { return hasOne(this.countText); }
+
+    public String getQueryName() { return this.queryName; }
+    public String getQueryText() { return this.queryText; }
+
+    public String getCountName() { return this.countName; }
+    public String getCountText() { return this.countText; }
 
     /**
      * Builds a Query.
@@ -95,11 +145,30 @@ public class QueryBuilder {
      */
     public Query buildQuery(EntityManager manager) {
         if (hasNamedQuery()) {
-            return queryWithValues(manager.createNamedQuery(getQueryName()));
+            return queryWindow(queryWithValues(manager.createNamedQuery(getQueryName())));
         }
 
         if (hasTextQuery()) {
-            return queryWithValues(manager.createQuery(getQueryText()));
+            return queryWindow(queryWithValues(createQuery(manager, getQueryText())));
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds a typed Query.
+     * @param <ResultType> a result type
+     * @param manager a query factory
+     * @param resultType a result type, either an entity or a projection
+     * @return a new TypedQuery
+     */
+    public <ResultType> TypedQuery<ResultType> buildQuery(EntityManager manager, Class<ResultType> resultType) {
+        if (hasNamedQuery()) {
+            return queryWindow(queryWithValues(manager.createNamedQuery(getQueryName(), resultType)));
+        }
+
+        if (hasTextQuery()) {
+            return queryWindow(queryWithValues(createQuery(manager, getQueryText(), resultType)));
         }
 
         return null;
@@ -116,25 +185,170 @@ public class QueryBuilder {
         }
 
         if (hasTextCount()) {
-            return queryWithValues(manager.createQuery(getCountText()));
+            return queryWithValues(createQuery(manager, getCountText()));
         }
 
         return null;
     }
 
-    static final String QueryName = "queryName";
-    static final String QueryText = "queryText";
-    static final String CountName = "countName";
-    static final String CountText = "countText";
-    static final String[] ReservedKeys = {QueryName, QueryText, CountName, CountText};
-    static final List<String> Reservations = wrap(ReservedKeys);
-    private Query queryWithValues(Query query) {
-        for (String valueName : this.values.keySet()) {
-            if (!Reservations.contains(valueName)) {
-                query.setParameter(valueName, this.values.get(valueName));
+    private <QueryType extends Query> QueryType queryWithValues(QueryType query) {
+        this.values.forEach((valueName, value) -> query.setParameter(valueName, value));
+        return query;
+    }
+
+    static final String FetchSize = "org.hibernate.fetchSize";
+    private <QueryType extends Query> QueryType queryWindow(QueryType query) {
+        if (firstResult > 0) query.setFirstResult(firstResult);
+        if (maxResults > 0) query.setMaxResults(maxResults);
+        if (fetchSize > 0) query.setHint(FetchSize, fetchSize);
+        return query;
+    }
+
+    static final int DefaultFetchSize = 100;
+    private int fetchSize(int chunkSize) { return fetchSize > 0 ? fetchSize : Math.max(1, chunkSize); }
+    private ScrollableResults scroll(EntityManager manager, int chunkSize) {
+        org.hibernate.query.Query<?> query = buildQuery(manager).unwrap(org.hibernate.query.Query.class);
+        query.setFetchSize(fetchSize(chunkSize));
+        query.setReadOnly(true); // skips the snapshots needed for dirty checking
+        return query.scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Opens a private (read-only) session for a scan, after flushing any pending changes the scan should see.
+     * @param manager an entity manager (within a transaction)
+     * @return a session sharing the connection of the manager's session
+     */
+    private static Session scanner(EntityManager manager) {
+        Session session = manager.unwrap(Session.class);
+        session.flush();
+        Session result = session.sessionWithOptions().connection().openSession();
+        result.setDefaultReadOnly(true);
+        result.setCacheMode(CacheMode.IGNORE); // uncommitted rows stay out of the shared cache
+        return result;
+    }
+
+    /**
+     * Loads the eager collections of a chunk, which a scroll leaves uninitialized,
+     * so that its consumer may use the chunk from other threads (e.g., in parallel).
+     */
+    private static <ResultType> List<ResultType> loaded(Session session, List<ResultType> chunk) {
+        ((SessionImplementor) session).getPersistenceContextInternal().initializeNonLazyCollections();
+        return chunk;
+    }
+
+    private static Object row(ScrollableResults results) {
+        Object[] row = results.get();
+        return row.length == 1 ? row[0] : row; }
+
+    /**
+     * Streams the results of this query, clearing its private session after each fetch.
+     * Close the stream when done, to release its cursor.
+     * @param <ResultType> a result type
+     * @param manager an entity manager (within a transaction)
+     * @return a stream of query results
+     */
+    public <ResultType> Stream<ResultType> stream(EntityManager manager) {
+        Session session = scanner(manager);
+        int chunkSize = fetchSize(DefaultFetchSize);
+        ScrollableResults results = scroll(session, chunkSize);
+        Spliterator<ResultType> rows = new Spliterators.AbstractSpliterator<ResultType>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            long count = 0;
+            @Override public boolean tryAdvance(Consumer<? super ResultType> action) {
+                if (count > 0 && count % chunkSize == 0) session.clear(); // the prior chunk was consumed
+                if (!results.next()) return false;
+                count++;
+                action.accept((ResultType) row(results));
+                return true;
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try { results.close(); } finally { session.close(); }
+        });
+    }
+
+    /**
+     * Passes the results of this query to a consumer in chunks, clearing its private session after each chunk.
+     * @param <ResultType> a result type
+     * @param manager an entity manager (within a transaction)
+     * @param chunkSize a chunk size
+     * @param consumer a chunk consumer
+     * @return a count of the query results
+     */
+    public <ResultType> long forEachChunk(EntityManager manager, int chunkSize, Consumer<List<ResultType>> consumer) {
+        Session session = scanner(manager);
+        int size = Math.max(1, chunkSize);
+        ScrollableResults results = scroll(session, size);
+        try {
+            long count = 0;
+            ArrayList<ResultType> chunk = new ArrayList<>(size);
+            while (results.next()) {
+                chunk.add((ResultType) row(results));
+                count++;
+                if (chunk.size() == size) {
+                    consumer.accept(loaded(session, chunk));
+                    chunk = new ArrayList<>(size);
+                    session.clear();
+                }
             }
+            if (!chunk.isEmpty()) consumer.accept(loaded(session, chunk));
+            return count;
         }
-        return query;
+        finally {
+            try { results.close(); } finally { session.close(); }
+        }
+    }
+
+    private static Query createQuery(EntityManager manager, String queryText) {
+        String queryName = registered(manager, queryText);
+        return hasOne(queryName) ? manager.createNamedQuery(queryName) : manager.createQuery(queryText); }
+
+    private static <ResultType> TypedQuery<ResultType> createQuery(
+            EntityManager manager, String queryText, Class<ResultType> resultType) {
+        String queryName = registered(manager, queryText);
+        return hasOne(queryName) ?
+            manager.createNamedQuery(queryName, resultType) : manager.createQuery(queryText, resultType); }
+
+    public static final int RegistryLimit = 256; // bounds the registered query texts
+    static final String NamePrefix = "QueryBuilder.";
+    static final AtomicInteger QueryCount = new AtomicInteger();
+    static final Map<String, String> QueryNames = new ConcurrentHashMap<>();
+    static final Map<EntityManagerFactory, Set<String>> Registrations =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Registers a query text as a named query with the factory of a manager, if not already registered,
+     * while fewer than RegistryLimit query texts have been registered.
+     * @param manager an entity manager
+     * @param queryText a query text
+     * @return the name of the registered query, or null if the registry is full
+     */
+    public static String registered(EntityManager manager, String queryText) {
+        String result = QueryNames.get(queryText);
+        if (hasNone(result)) result = named(queryText);
+        if (hasNone(result)) return null;
+
+        EntityManagerFactory factory = manager.getEntityManagerFactory();
+        Set<String> names = Registrations.computeIfAbsent(factory, f -> ConcurrentHashMap.newKeySet());
+        if (names.contains(result)) return result;
+
+        synchronized (names) {
+            if (!names.contains(result)) {
+                EntityManager parser = factory.createEntityManager();
+                try { factory.addNamedQuery(result, parser.createQuery(queryText)); }
+                finally { parser.close(); }
+                names.add(result);
+            }
+        }
+        return result;
+    }
+
+    private static synchronized String named(String queryText) {
+        String result = QueryNames.get(queryText);
+        if (hasOne(result) || QueryNames.size() >= RegistryLimit) return result;
+        result = NamePrefix + QueryCount.incrementAndGet();
+        QueryNames.put(queryText, result);
+        return result;
     }
 
 } // QueryBuilder
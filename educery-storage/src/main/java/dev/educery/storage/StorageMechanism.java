@@ -1,6 +1,7 @@
 package dev.educery.storage;
 
 import java.util.*;
+import javax.persistence.EntityManager;
 import org.springframework.data.repository.CrudRepository;
 
 /**
@@ -35,7 +36,8 @@ public class StorageMechanism<ModelType, StorageType extends CrudRepository<Mode
      * @return a storage mechanism for a given model type
      */
     public static <StorageType extends CrudRepository> StorageType get(Class<?> modelType) {
-        return (Registry.Instance == null) ? null : (StorageType) Registry.Instance.getModelStorage(modelType);
+        Registry registry = Registry.Instance;
+        return (registry == null) ? null : (StorageType) registry.getModelStorage(modelType);
     }
 
     /**
@@ -44,16 +46,67 @@ public class StorageMechanism<ModelType, StorageType extends CrudRepository<Mode
      * @return a storage mechanism for a given storage type
      */
     public static <StorageType extends CrudRepository> StorageType getStorage(Class<StorageType> storeType) {
-        return (Registry.Instance == null) ? null : (StorageType) Registry.Instance.getStorage(storeType);
+        Registry registry = Registry.Instance;
+        return (registry == null) ? null : (StorageType) registry.getStorage(storeType);
+    }
+
+    /**
+     * @return a (shared) entity manager for queries, if configured
+     */
+    public static EntityManager getManager() {
+        Registry registry = Registry.Instance;
+        return (registry == null) ? null : registry.getManager();
     }
 
     /**
      * A storage mechanism registry. Provides access to the configured storage mechanisms.
+     * Lookups read an immutable snapshot of the registered mechanisms without locking.
+     * Registrations replace the snapshot, so mechanisms may be added at any time.
      */
     public static class Registry {
 
-        private final HashMap<String, StorageMechanism> map = new HashMap();
-        private final HashMap<String, StorageMechanism> modelMap = new HashMap();
+        /**
+         * An immutable snapshot of the registered mechanisms, keyed by their classes.
+         * Each model class (or subclass, e.g., a proxy) gets resolved to its mechanism only once.
+         */
+        static class Mechanisms {
+
+            final Map<Class<?>, StorageMechanism> stores;
+            final Map<Class<?>, StorageMechanism> models;
+            Mechanisms(Map<Class<?>, StorageMechanism> stores, Map<Class<?>, StorageMechanism> models) {
+                this.stores = Collections.unmodifiableMap(stores);
+                this.models = Collections.unmodifiableMap(models);
+            }
+
+            final ClassValue<StorageMechanism> resolved = new ClassValue<StorageMechanism>() {
+                @Override protected StorageMechanism computeValue(Class<?> modelType) {
+                    for (Class<?> type = modelType; type != null; type = type.getSuperclass()) {
+                        StorageMechanism result = models.get(type);
+                        if (result != null) return result;
+                    }
+                    return null;
+                }
+            };
+
+            Mechanisms with(StorageMechanism bean) {
+                HashMap<Class<?>, StorageMechanism> storeMap = new HashMap<>(stores);
+                HashMap<Class<?>, StorageMechanism> modelMap = new HashMap<>(models);
+                storeMap.put(bean.getStorageType(), bean);
+                modelMap.put(bean.getModelType(), bean);
+                return new Mechanisms(storeMap, modelMap);
+            }
+
+        } // Mechanisms
+
+        private volatile Mechanisms mechanisms = new Mechanisms(new HashMap<>(), new HashMap<>());
+        private volatile EntityManager manager = null;
+
+        /**
+         * @param manager a (shared, transaction aware) entity manager for queries
+         * @return this Registry
+         */
+        public Registry withManager(EntityManager manager) { this.manager = manager; return this; }
+        public EntityManager getManager() { return this.manager; }
 
         /**
          * @param <StorageType> a kind of Repository
@@ -61,7 +114,8 @@ public class StorageMechanism<ModelType, StorageType extends CrudRepository<Mode
          * @return a registered JPA Repository for a given storage type
          */
         public <StorageType extends CrudRepository> StorageType getStorage(Class<StorageType> storeType) {
-            return (StorageType) map.get(storeType.getName()).getStore();
+            StorageMechanism result = mechanisms.stores.get(storeType);
+            return (result == null) ? null : (StorageType) result.getStore();
         }
 
         /**
@@ -69,7 +123,8 @@ public class StorageMechanism<ModelType, StorageType extends CrudRepository<Mode
          * @return a registered JPA Repository for a given model type
          */
         public CrudRepository getModelStorage(Class<?> modelType) {
-            return (CrudRepository) modelMap.get(modelType.getName()).getStore();
+            StorageMechanism result = mechanisms.resolved.get(modelType);
+            return (result == null) ? null : (CrudRepository) result.getStore();
         }
 
         /**
@@ -77,13 +132,14 @@ public class StorageMechanism<ModelType, StorageType extends CrudRepository<Mode
          * @return a registered storage type for a given model type
          */
         public Class<?> getStorageType(Class<?> modelType) {
-            return modelMap.get(modelType.getName()).getStorageType();
+            StorageMechanism result = mechanisms.resolved.get(modelType);
+            return (result == null) ? null : result.getStorageType();
         }
 
         /**
          * The singular registry.
          */
-        static Registry Instance = null;
+        static volatile Registry Instance = null;
 
         /**
          * Registers storage beans.
@@ -99,15 +155,21 @@ public class StorageMechanism<ModelType, StorageType extends CrudRepository<Mode
             return result;
         }
 
-        public void register(StorageMechanism bean) {
-            map.put(bean.getStorageType().getName(), bean);
-            modelMap.put(bean.getModelType().getName(), bean);
-        }
+        /**
+         * Registers a storage bean, replacing the current snapshot.
+         * @param bean a storage bean
+         */
+        public synchronized void register(StorageMechanism bean) { mechanisms = mechanisms.with(bean); }
+
+        /**
+         * @return the registered storage mechanisms
+         */
+        public List<StorageMechanism> mechanisms() { return new ArrayList<>(mechanisms.models.values()); }
 
         /**
          * @return a count of the registered stores
          */
-        public int size() { return this.map.size(); }
+        public int size() { return mechanisms.stores.size(); }
 
     } // Registry
 
@@ -5,6 +5,7 @@ import java.io.Serializable;
 import javax.persistence.*;
 import javax.xml.bind.annotation.*;
 
+import org.hibernate.annotations.GenericGenerator;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.text.WordUtils;
 import org.springframework.data.repository.CrudRepository;
@@ -50,10 +51,11 @@ public abstract class Surrogated<ItemType> implements SurrogatedItem, Serializab
         StoreType getStore() { return (StoreType) getStore(getClass()); }
 
     /**
-     * A surrogate key, generated automatically by the configured persistence framework.
+     * A surrogate key, generated from a pooled sequence per table (see PooledKeys).
      */
     @Id @Column(name = "id")
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = PooledKeys.Name)
+    @GenericGenerator(name = PooledKeys.Name, strategy = "dev.educery.storage.PooledKeys")
     protected long key;
 
     @XmlAttribute
@@ -63,7 +65,60 @@ public abstract class Surrogated<ItemType> implements SurrogatedItem, Serializab
 
     @Override public boolean wasSaved() { return getKey() > 0; }
     @Override public ItemType asItem() { return (ItemType) this; }
-    @Override public ItemType saveItem() { if (isComposite()) saveParts(); return getStore().save(this.asItem()); }
+
+    /**
+     * Indicates whether this item changed since it was loaded or saved.
+     * New items (including those decoded from JSON) count as changed until saved.
+     */
+    private transient boolean changed = true;
+    @Override public boolean wasChanged() { return changed || !wasSaved(); }
+    protected void markChanged() { this.changed = true; }
+
+    @PostLoad
+    protected void markSaved() {
+        this.changed = false;
+        if (isComposite()) wrap(asComposite().componentChanges()).forEach((log) -> ((ChangeLog) log).clear());
+    }
+
+    /**
+     * @return whether this item, its component maps, or its components changed since it was loaded or saved
+     */
+    public boolean hasChanges() {
+        if (wasChanged()) return true;
+        if (!isComposite()) return false;
+        if (wrap(asComposite().componentChanges()).stream().anyMatch((log) -> !((ChangeLog) log).isEmpty())) return true;
+        if (wrap(asComposite().componentMaps()).stream().anyMatch((m) -> anyChanged(((Map) m).values()))) return true;
+        if (wrap(asComposite().componentSets()).stream().anyMatch((s) -> anyChanged((Set) s))) return true;
+        SurrogatedItem[] parts = asComposite().components();
+        return hasOne(parts) && anyChanged(wrap(parts));
+    }
+
+    private static boolean anyChanged(Collection<SurrogatedItem> parts) {
+        return parts.stream().anyMatch((part) -> part.wasChanged()); }
+
+    /**
+     * Saves this item, along with only those components that changed.
+     * @return this item, as saved
+     */
+    @Override public ItemType saveItem() {
+        if (!hasChanges()) return this.asItem(); // nothing to save
+        if (isComposite()) saveParts();
+        ItemType result = getStore().save(this.asItem());
+        ((Surrogated) result).markSaved();
+        return result;
+    }
+
+    /**
+     * Counts each inserted item, whether saved directly or cascaded from its composite.
+     */
+    @PrePersist
+    protected void countInsert() { itemCount().added(); }
+
+    /**
+     * @return the maintained count of stored items of this type
+     */
+    protected ItemCount itemCount() { return ItemCount.of(getClass()); }
+    protected long countItems() { return itemCount().count(getStore()); }
 
     protected boolean isComposite() { return this instanceof SurrogatedComposite; }
     protected SurrogatedComposite asComposite() { return (SurrogatedComposite) this; }
@@ -76,14 +131,14 @@ public abstract class Surrogated<ItemType> implements SurrogatedItem, Serializab
     private void saveMaps(Object[] maps) { wrap(maps).forEach((m) -> saveMap((Map<Object, SurrogatedItem>) m)); }
     private <KeyType> void saveMap(Map<KeyType, SurrogatedItem> m) {
         runLoudly(() -> { // replace each mapped item with its saved version
-            m.keySet().forEach((aKey) -> { m.put(aKey, (SurrogatedItem) m.get(aKey).saveItem()); });
+            m.keySet().forEach((aKey) -> { m.put(aKey, (SurrogatedItem) saveChanged(m.get(aKey))); });
         });
     }
 
     private void saveSets(Object[] sets) { wrap(sets).forEach((s) -> saveSet((Set<SurrogatedItem>) s)); }
     private void saveSet(Set<SurrogatedItem> set) {
         HashSet<SurrogatedItem> results = new HashSet<>(set);
-        set.forEach((part) -> results.add((SurrogatedItem) part.saveItem()));
+        set.forEach((part) -> results.add((SurrogatedItem) saveChanged(part)));
 
         // replace all items with their saved versions
         set.clear(); set.addAll(results);
@@ -92,12 +147,15 @@ public abstract class Surrogated<ItemType> implements SurrogatedItem, Serializab
     private void saveParts(final SurrogatedItem[] parts) {
         if (hasNo(parts)) return; // no direct components
         final int[] x = { 0 }; // make local available to lambda
-        wrap(parts).forEach((p) -> { parts[x[0]] = p.saveItem(); x[0]++; });
+        wrap(parts).forEach((p) -> { parts[x[0]] = saveChanged(p); x[0]++; });
 
         // replace all parts with their saved versions if needed
         this.asComposite().components(parts);
     }
 
+    private static SurrogatedItem saveChanged(SurrogatedItem part) {
+        return part.wasChanged() ? (SurrogatedItem) part.saveItem() : part; }
+
     /**
      * Removes this item from its backing store.
      * @return whether this item was removed
@@ -105,6 +163,7 @@ public abstract class Surrogated<ItemType> implements SurrogatedItem, Serializab
     public boolean removeItem() {
         if (getKey() == 0) return false;
         getStore().delete(this.asItem());
+        itemCount().removed();
         return true;
     }
 
@@ -129,6 +188,12 @@ public abstract class Surrogated<ItemType> implements SurrogatedItem, Serializab
      */
     public Object[] componentSets() { Object[] results = {}; return results; }
 
+    /**
+     * Any component map change logs.
+     * @return empty by default, override as needed
+     */
+    public Object[] componentChanges() { Object[] results = {}; return results; }
+
     /**
      * Any component items.
      * @return empty by default, override as needed
@@ -27,6 +27,13 @@ public interface SurrogatedComposite extends SurrogatedItem {
      */
     public Object[] componentSets();
 
+    /**
+     * Returns a change log for each of the component maps, in the same order.
+     *
+     * @return any component map change logs
+     */
+    public Object[] componentChanges();
+
     /**
      * Any directly related surrogate components.
      */
@@ -28,6 +28,11 @@ public interface SurrogatedItem extends Descriptive {
      */
     @XmlTransient public boolean wasSaved();
 
+    /**
+     * @return whether this item changed since it was loaded or saved
+     */
+    @XmlTransient public boolean wasChanged();
+
     /**
      * @param <ItemType> an item type
      * @return this item
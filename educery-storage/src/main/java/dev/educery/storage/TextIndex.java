@@ -0,0 +1,179 @@
+package dev.educery.storage;
+
+import java.util.*;
+import java.util.concurrent.*;
+import static dev.educery.utils.Utils.*;
+
+/**
+ * An in-memory inverted index of weighted terms, keyed by item surrogate keys.
+ *
+ * <h4>TextIndex Responsibilities:</h4>
+ * <ul>
+ * <li>knows the weighted terms of each indexed item</li>
+ * <li>knows which items contain each term (postings)</li>
+ * <li>replaces or removes the terms of an item</li>
+ * <li>ranks the items that contain all the terms of a query</li>
+ * </ul>
+ *
+ * <h4>Client Responsibilities:</h4>
+ * <ul>
+ * <li>supplies the (normalized) terms of each item</li>
+ * </ul>
+ *
+ * Reads are lock free, while updates are serialized.
+ * The last term of a query also matches as a prefix of the indexed terms.
+ * After other query terms, a prefix gets checked against the terms of each candidate item, so it matches completely.
+ * Alone, a prefix expands into at most PrefixLimit indexed terms, ranked closest (shortest) first, then most items first.
+ *
+ * @author nik <nikboyd@sonic.net>
+ * @see "Copyright 2010,2021 Nikolas S Boyd."
+ * @see "Permission is granted to copy this work provided this copyright statement is retained in all copies."
+ */
+public class TextIndex {
+
+    private final ConcurrentSkipListMap<String, Map<Long, Float>> postings = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, Map<String, Float>> items = new ConcurrentHashMap<>();
+
+    /**
+     * @return a count of the indexed items
+     */
+    public int size() { return this.items.size(); }
+    public int termCount() { return this.postings.size(); }
+    public boolean contains(long key) { return this.items.containsKey(key); }
+
+    /**
+     * Replaces the terms of an item.
+     * @param key an item key
+     * @param terms the weighted item terms
+     */
+    public synchronized void put(long key, Map<String, Float> terms) {
+        remove(key);
+        Map<String, Float> copy = new HashMap<>(terms);
+        copy.forEach((term, weight) ->
+            postings.computeIfAbsent(term, t -> new ConcurrentHashMap<>()).put(key, weight));
+        items.put(key, copy);
+    }
+
+    /**
+     * Removes an item from this index.
+     * @param key an item key
+     */
+    public synchronized void remove(long key) {
+        Map<String, Float> terms = items.remove(key);
+        if (hasNone(terms)) return;
+        terms.keySet().forEach((term) -> {
+            Map<Long, Float> keys = postings.get(term);
+            if (hasOne(keys)) {
+                keys.remove(key);
+                if (keys.isEmpty()) postings.remove(term);
+            }
+        });
+    }
+
+    /**
+     * Removes all items from this index.
+     */
+    public synchronized void clear() { items.clear(); postings.clear(); }
+
+    /**
+     * A ranked item key.
+     */
+    public static class Hit implements Comparable<Hit> {
+        private final long key;
+        private final float score;
+        Hit(long key, float score) { this.key = key; this.score = score; }
+        public long getKey() { return this.key; }
+        public float getScore() { return this.score; }
+
+        @Override public int compareTo(Hit other) {
+            int result = Float.compare(other.score, this.score); // higher scores first
+            return result != 0 ? result : Long.compare(this.key, other.key);
+        }
+    } // Hit
+
+    /**
+     * Ranks the items that contain all the query terms.
+     * @param terms some (normalized) query terms
+     * @return the ranked matching items, best first
+     */
+    public List<Hit> search(List<String> terms) {
+        if (hasNo(terms)) return emptyList();
+        List<Map<Long, Float>> matches = new ArrayList<>();
+        int last = terms.size() - 1;
+        for (int index = 0; index < last; index++) {
+            Map<Long, Float> keys = exactMatches(terms.get(index));
+            if (keys.isEmpty()) return emptyList(); // no item has all the terms
+            matches.add(keys);
+        }
+
+        matches.sort(Comparator.comparingInt(Map::size));
+        String prefix = terms.get(last);
+        Map<Long, Float> prefixed = matches.isEmpty() ?
+            prefixMatches(prefix) : prefixMatches(prefix, matches.get(0).keySet());
+        if (prefixed.isEmpty()) return emptyList();
+        matches.add(prefixed);
+
+        // walk the smallest postings, probing the others
+        matches.sort(Comparator.comparingInt(Map::size));
+        Map<Long, Float> smallest = matches.get(0);
+        List<Hit> results = new ArrayList<>();
+        smallest.forEach((key, weight) -> {
+            float score = weight;
+            for (int index = 1; index < matches.size(); index++) {
+                Float other = matches.get(index).get(key);
+                if (hasNone(other)) return;
+                score += other;
+            }
+            results.add(new Hit(key, score));
+        });
+
+        Collections.sort(results);
+        return results;
+    }
+
+    private Map<Long, Float> exactMatches(String term) {
+        Map<Long, Float> keys = postings.get(term);
+        return hasNone(keys) ? Collections.emptyMap() : keys;
+    }
+
+    /**
+     * @param term a term prefix
+     * @param candidates the keys of the items that matched the other query terms
+     * @return the best weights of the prefixed terms of the candidate items
+     */
+    private Map<Long, Float> prefixMatches(String term, Set<Long> candidates) {
+        HashMap<Long, Float> results = new HashMap<>();
+        for (Long key : candidates) {
+            Map<String, Float> terms = items.get(key);
+            if (hasNone(terms)) continue;
+            terms.forEach((indexed, weight) -> {
+                if (indexed.startsWith(term)) results.merge(key, weight, Math::max);
+            });
+        }
+        return results;
+    }
+
+    // closest (shortest) terms first, then those with the most items, then alphabetically
+    static final Comparator<Map.Entry<String, Map<Long, Float>>> Closest =
+        Comparator.comparingInt((Map.Entry<String, Map<Long, Float>> e) -> e.getKey().length())
+            .thenComparing(e -> e.getValue().size(), Comparator.reverseOrder())
+            .thenComparing(e -> e.getKey());
+
+    static final int PrefixLimit = 64; // bounds how many terms a short prefix can expand into
+    private Map<Long, Float> prefixMatches(String term) {
+        NavigableMap<String, Map<Long, Float>> range =
+            postings.subMap(term, true, term + Character.MAX_VALUE, false);
+
+        // keep the closest terms, when there are too many to merge
+        PriorityQueue<Map.Entry<String, Map<Long, Float>>> kept = new PriorityQueue<>(Closest.reversed());
+        for (Map.Entry<String, Map<Long, Float>> entry : range.entrySet()) {
+            kept.add(entry);
+            if (kept.size() > PrefixLimit) kept.poll(); // drops the farthest term
+        }
+
+        HashMap<Long, Float> results = new HashMap<>();
+        kept.forEach(entry -> entry.getValue().forEach((key, weight) -> results.merge(key, weight, Math::max)));
+        return results;
+    }
+
+} // TextIndex
@@ -1,9 +1,16 @@
 package dev.educery.data;
 
+import java.util.*;
+import javax.sql.DataSource;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import static org.junit.Assert.*;
 
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -33,4 +40,59 @@ public class DataSourceTest implements Logging {
         if (cloudDataSource != null) report("loaded CloudDataSource");
     }
 
+    @Test public void tunedSource() {
+        Assume.assumeNotNull(directDataSource); // skipped (visibly) under the cloud profile
+        Properties properties = directDataSource.additionalProperties();
+        assertTrue(properties.getProperty("hibernate.jdbc.batch_size").equals("50"));
+        assertTrue(properties.getProperty("hibernate.order_inserts").equals("true"));
+
+        MockEnvironment invalid = new MockEnvironment().withProperty("test.db.tuning.batch.size", "lots");
+        try {
+            TuningProfile.from(invalid, "test").properties();
+            fail("accepted an invalid batch size");
+        }
+        catch (IllegalArgumentException e) {
+            report(e.getMessage());
+        }
+    }
+
+    static final String SourceURL = "jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1";
+    static final String ReadSource = "SELECT name FROM source";
+    @Test public void routedSource() {
+        DataSource primary = memorySource("primary");
+        DataSource replica = memorySource("replica");
+        RoutingDataSource router = RoutingDataSource.with(primary, Arrays.asList(replica))
+                .balancedBy(RoutingDataSource.Balance.named("least-connections")).lagging(300);
+
+        JdbcTemplate jdbc = new JdbcTemplate(router.lazily());
+        DataSourceTransactionManager transactions = new DataSourceTransactionManager(jdbc.getDataSource());
+        TransactionTemplate writer = new TransactionTemplate(transactions);
+        TransactionTemplate reader = new TransactionTemplate(transactions);
+        reader.setReadOnly(true);
+
+        String read = reader.execute(status -> jdbc.queryForObject(ReadSource, String.class));
+        assertTrue(read.equals("replica"));
+        assertTrue(router.activeReplicaConnections().get(0) == 0);
+
+        String written = writer.execute(status -> jdbc.queryForObject(ReadSource, String.class));
+        assertTrue(written.equals("primary"));
+
+        read = reader.execute(status -> jdbc.queryForObject(ReadSource, String.class));
+        assertTrue(read.equals("primary")); // within the lag window
+
+        try { Thread.sleep(400); } catch (InterruptedException e) { }
+        read = reader.execute(status -> jdbc.queryForObject(ReadSource, String.class));
+        assertTrue(read.equals("replica"));
+    }
+
+    private DataSource memorySource(String name) {
+        DriverManagerDataSource result = new DriverManagerDataSource(String.format(SourceURL, name), "sa", "");
+        result.setDriverClassName("org.h2.Driver");
+        JdbcTemplate jdbc = new JdbcTemplate(result);
+        jdbc.execute("CREATE TABLE IF NOT EXISTS source (name VARCHAR(20))");
+        jdbc.update("DELETE FROM source");
+        jdbc.update("INSERT INTO source VALUES (?)", name);
+        return result;
+    }
+
 } // DataSourceTest